@@ -0,0 +1,129 @@
+package searchengine.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import searchengine.config.SearchSettings;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Производительность ранжирования на синтетическом индексе: пересечение списков страниц
+ * ({@link InvertedIndex#findPages}), расчет BM25 ({@link Bm25Scorer}) и отбор лучших страниц
+ * ({@link TopKCollector}) в сравнении с полной сортировкой.
+ * <p>
+ * Частоты лемм распределены по закону Ципфа, как в текстах на естественном языке. Запуск:
+ * <pre>
+ *     mvn -Pjmh compile exec:exec
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchRankingBenchmark {
+
+    private static final int VOCABULARY = 20_000;
+    private static final int LEMMAS_PER_PAGE = 200;
+    private static final int SITES = 3;
+
+    @Param({"10000", "100000"})
+    private int pages;
+
+    /**
+     * Сколько лучших страниц нужно: первая страница выдачи или глубина кэша результатов
+     */
+    @Param({"20", "500"})
+    private int topK;
+
+    private InvertedIndex invertedIndex;
+    private Bm25Scorer scorer;
+    private List<List<String>> queries;
+    private long[] matched;
+    private double[] matchedScores;
+
+    @Setup(Level.Trial)
+    public void buildIndex() {
+        Random random = new Random(42);
+        invertedIndex = new InvertedIndex(null, null, null);
+        scorer = new Bm25Scorer(new SearchSettings());
+        double[] zipf = new double[VOCABULARY];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            sum += 1.0 / (i + 1);
+            zipf[i] = sum;
+        }
+        for (long pageId = 1; pageId <= pages; pageId++) {
+            Map<String, Long> lemmas = new HashMap<>();
+            for (int i = 0; i < LEMMAS_PER_PAGE; i++) {
+                int rank = Arrays.binarySearch(zipf, random.nextDouble() * sum);
+                lemmas.merge("l" + (rank < 0 ? -rank - 1 : rank), 1L, Long::sum);
+            }
+            invertedIndex.indexPage(pageId, pageId % SITES, lemmas);
+        }
+        // частые, средние и редкие леммы в запросах, упорядоченные по возрастанию частоты
+        queries = new ArrayList<>();
+        for (int q = 0; q < 64; q++) {
+            List<String> query = new ArrayList<>(List.of(
+                    "l" + (20 + random.nextInt(200)), "l" + random.nextInt(20), "l" + random.nextInt(5)));
+            query.sort(Comparator.comparingInt(lemma -> invertedIndex.documentFrequency(lemma, null)));
+            queries.add(query);
+        }
+        matched = invertedIndex.findPages(List.of("l0"), null);
+        matchedScores = new double[matched.length];
+        for (int i = 0; i < matched.length; i++) {
+            matchedScores[i] = random.nextDouble();
+        }
+    }
+
+    /**
+     * Весь путь ранжирования запроса без обращений к БД
+     */
+    @Benchmark
+    @OperationsPerInvocation(64)
+    public void rank(Blackhole blackhole) {
+        for (List<String> query : queries) {
+            long[] found = invertedIndex.findPages(query, null);
+            int[][] termFrequencies = new int[query.size()][];
+            int[] documentFrequencies = new int[query.size()];
+            for (int t = 0; t < query.size(); t++) {
+                termFrequencies[t] = invertedIndex.termFrequencies(query.get(t), found, null);
+                documentFrequencies[t] = invertedIndex.documentFrequency(query.get(t), null);
+            }
+            double[] scores = scorer.score(new ScoringInput(found, termFrequencies, documentFrequencies,
+                    invertedIndex.pageLengths(found), invertedIndex.pageCount(null),
+                    invertedIndex.averagePageLength(null)));
+            TopKCollector collector = new TopKCollector(topK);
+            for (int i = 0; i < found.length; i++) {
+                collector.collect(found[i], scores[i]);
+            }
+            blackhole.consume(collector.sort());
+        }
+    }
+
+    @Benchmark
+    public int topKCollector() {
+        TopKCollector collector = new TopKCollector(topK);
+        for (int i = 0; i < matched.length; i++) {
+            collector.collect(matched[i], matchedScores[i]);
+        }
+        return collector.sort();
+    }
+
+    /**
+     * Полная сортировка всех найденных страниц, как до {@link TopKCollector}
+     */
+    @Benchmark
+    public long fullSort() {
+        Integer[] order = new Integer[matched.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> matchedScores[a] != matchedScores[b]
+                ? Double.compare(matchedScores[b], matchedScores[a])
+                : Long.compare(matched[a], matched[b]));
+        return matched[order[Math.min(topK, order.length) - 1]];
+    }
+}
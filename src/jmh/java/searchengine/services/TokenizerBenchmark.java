@@ -0,0 +1,144 @@
+package searchengine.services;
+
+import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
+import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import searchengine.config.LemmaCacheSettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Разбиение страницы на слова: однопроходный {@link TextTokenizer} по текстовым узлам документа
+ * в сравнении с прежним {@code MorfologyService.prepareString} - тремя {@code replaceAll} по исходному HTML
+ * и {@code split("\\s")}. Отдельно измеряется вся лемматизация страницы
+ * ({@link MorfologyService#morphologyForms(org.jsoup.nodes.Node)}) и те же слова прежнего разбиения,
+ * переданные в {@link LemmaCache}.
+ * <p>
+ * Одна операция - одна страница, страницы перебираются по кругу. Документ разбирается заранее, так как
+ * обходчик разбирает его для извлечения ссылок в любом случае. Страницы берутся из {@code src/jmh/resources/pages}
+ * или из каталога с сохраненными страницами ({@code -p pagesDir=...}). Выделение памяти на страницу
+ * показывает профилировщик {@code gc} ({@code gc.alloc.rate.norm}), он включен в профиле {@code jmh}:
+ * <pre>
+ *     mvn -Pjmh compile exec:exec -Djmh.benchmarks=TokenizerBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    private static final List<String> BUNDLED_PAGES = List.of("article.html", "catalog.html", "docs.html");
+
+    /**
+     * Каталог с HTML страницами, пустая строка - страницы из ресурсов
+     */
+    @Param({""})
+    private String pagesDir;
+
+    private String[] html;
+    private Document[] documents;
+    private LemmaCache lemmaCache;
+    private MorfologyService morfologyService;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void loadPages() throws IOException {
+        List<String> pages = pagesDir.isEmpty() ? bundledPages() : directoryPages(Paths.get(pagesDir));
+        html = pages.toArray(String[]::new);
+        documents = pages.stream().map(Jsoup::parse).toArray(Document[]::new);
+        lemmaCache = new LemmaCache(new EnglishLuceneMorphology(), new RussianLuceneMorphology(),
+                new LemmaCacheSettings());
+        lemmaCache.init();
+        morfologyService = new MorfologyService(lemmaCache, null, null, null, null, null);
+    }
+
+    @Benchmark
+    public void textTokenizer(Blackhole blackhole) {
+        new TextTokenizer().tokenize(documents[nextPage()], blackhole::consume);
+    }
+
+    @Benchmark
+    public List<String> regexChain() {
+        return prepareString(html[nextPage()]);
+    }
+
+    @Benchmark
+    public Map<String, Long> morphologyForms() {
+        return morfologyService.morphologyForms(documents[nextPage()]);
+    }
+
+    @Benchmark
+    public Map<String, Long> regexChainMorphologyForms() {
+        HashMap<String, Long> targetWords = new HashMap<>();
+        for (String word : prepareString(html[nextPage()])) {
+            LemmaCache.WordForm form = lemmaCache.lookup(word);
+            if (form.isIndexable()) {
+                targetWords.merge(form.lemma(), 1L, Long::sum);
+            }
+        }
+        return targetWords;
+    }
+
+    /**
+     * Прежний {@code MorfologyService.prepareString} без изменений
+     */
+    static List<String> prepareString(String someString) {
+        someString = someString.replaceAll("[,.?{}'<>\\[\\](\")!—-]", "");
+        someString = someString.replaceAll("</?[a-z]*>", "");
+        someString = someString.replaceAll("[a-z]+=", "");
+        List<String> words = List.of(someString.split("\\s"));
+        return words.stream().filter(f -> !f.isEmpty()).toList();
+    }
+
+    private int nextPage() {
+        int page = next;
+        next = page + 1 == html.length ? 0 : page + 1;
+        return page;
+    }
+
+    private static List<String> bundledPages() throws IOException {
+        List<String> pages = new ArrayList<>();
+        for (String name : BUNDLED_PAGES) {
+            try (InputStream in = TokenizerBenchmark.class.getResourceAsStream("/pages/" + name)) {
+                if (in == null) {
+                    throw new IOException("Benchmark page not found: " + name);
+                }
+                pages.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return pages;
+    }
+
+    private static List<String> directoryPages(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<String> pages = files.filter(file -> file.toString().endsWith(".html")).sorted()
+                    .map(file -> {
+                        try {
+                            return Files.readString(file);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .toList();
+            if (pages.isEmpty()) {
+                throw new IOException("No .html pages in " + directory);
+            }
+            return pages;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Настройки загрузки страниц при обходе сайтов
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "crawler-settings")
+public class CrawlerSettings {
+    private String userAgent = "Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) Gecko/20070725 Firefox/2.0.0.6";
+    private String referrer = "http://www.google.com";
+    /**
+     * Максимальное количество одновременных запросов ко всем сайтам
+     */
+    private int maxConcurrentRequests = 64;
+    /**
+     * Количество запросов в секунду к одному сайту, если для сайта не указано иное
+     */
+    private double requestsPerSecond = 8;
+    /**
+     * Сколько запросов к одному сайту можно выполнить подряд без ожидания
+     */
+    private int burst = 2;
+    /**
+     * Количество потоков, которые разбирают и сохраняют загруженные страницы всех сайтов.
+     * Количество запросов в работе от него не зависит и ограничено {@link #maxConcurrentRequests}
+     */
+    private int workerThreads = 32;
+    /**
+     * Максимальная глубина обхода от главной страницы, {@code 0} - без ограничения
+     */
+    private int maxDepth = 0;
+    /**
+     * Максимальное количество страниц одного сайта, {@code 0} - без ограничения
+     */
+    private int maxPages = 0;
+    /**
+     * Максимальный объем памяти под отпечатки встреченных адресов одного сайта
+     */
+    private long seenSetMaxBytes = 32L * 1024 * 1024;
+    /**
+     * Переходить ли на фильтр Блума, когда отпечатки не помещаются в {@link #seenSetMaxBytes},
+     * иначе обход сайта завершается с ошибкой
+     */
+    private boolean seenSetBloomFilter = true;
+    /**
+     * Повторный обход с условными запросами: неизменившиеся страницы не загружаются
+     * и не лемматизируются заново
+     */
+    private boolean incrementalRecrawl = true;
+    /**
+     * Максимальный размер тела HTML страницы, более длинные страницы обрезаются. Тела ответов
+     * с другим {@code Content-Type} не загружаются
+     */
+    private int maxBodyBytes = 2 * 1024 * 1024;
+    private long connectTimeoutMs = 10_000;
+    private long requestTimeoutMs = 20_000;
+}
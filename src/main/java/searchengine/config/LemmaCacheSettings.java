@@ -0,0 +1,20 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Настройки кэша лемматизации
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "lemma-cache")
+public class LemmaCacheSettings {
+    /**
+     * Максимальное количество словоформ в кэше
+     */
+    private long maximumSize = 200_000;
+}
@@ -0,0 +1,32 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Настройки конвейера индексации страниц
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "pipeline-settings")
+public class PipelineSettings {
+    /**
+     * Количество потоков лемматизации, {@code 0} - по количеству ядер
+     */
+    private int lemmatizerThreads = 0;
+    /**
+     * Сколько разобранных страниц может ждать лемматизации, при заполнении очереди обход приостанавливается
+     */
+    private int lemmatizeQueueCapacity = 256;
+    /**
+     * Сколько сайтов может одновременно переиндексировать леммы
+     */
+    private int relemmatizeThreads = 2;
+    /**
+     * Сколько страниц читается одним запросом при переиндексации лемм сайта, после каждой пачки сохраняется прогресс
+     */
+    private int relemmatizeChunk = 200;
+}
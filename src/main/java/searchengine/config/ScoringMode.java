@@ -0,0 +1,15 @@
+package searchengine.config;
+
+/**
+ * Способ расчета релевантности страниц при поиске
+ */
+public enum ScoringMode {
+    /**
+     * Okapi BM25 по леммам запроса
+     */
+    BM25,
+    /**
+     * Сумма рангов лемм запроса на странице
+     */
+    RANK_SUM
+}
@@ -0,0 +1,92 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Настройки поиска из файла-конфигурации приложения
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "search-settings")
+public class SearchSettings {
+    /**
+     * Способ расчета релевантности
+     */
+    private ScoringMode scoring = ScoringMode.BM25;
+    /**
+     * Леммы, которые встречаются на большей доле страниц сайта (или всех сайтов при поиске без сайта),
+     * в процентах, не участвуют в поиске
+     */
+    private double frequencyCutoffPercent = 80;
+    /**
+     * Наибольшее количество результатов в обычном ответе {@code /search}, в том числе при {@code limit=0}.
+     * Остальные результаты доступны по курсору или потоком ({@code stream=true})
+     */
+    private int maxResults = 1000;
+    /**
+     * Параметры BM25
+     */
+    private Bm25 bm25 = new Bm25();
+    /**
+     * Параметры позиционного индекса
+     */
+    private Positions positions = new Positions();
+    /**
+     * Параметры кэша результатов поиска
+     */
+    private ResultCache resultCache = new ResultCache();
+
+    @Getter
+    @Setter
+    public static class Bm25 {
+        /**
+         * Насыщение частоты леммы на странице
+         */
+        private double k1 = 1.2;
+        /**
+         * Степень нормализации по длине страницы
+         */
+        private double b = 0.75;
+    }
+
+    @Getter
+    @Setter
+    public static class Positions {
+        /**
+         * Сохранять позиции лемм в {@code indexes.positions} и использовать их для фраз в кавычках
+         * и повышения релевантности страниц, где слова запроса стоят рядом
+         */
+        private boolean enabled = true;
+        /**
+         * Вес близости слов: релевантность умножается на {@code 1 + weight * n / span},
+         * где {@code span} - длина наименьшего окна со всеми {@code n} леммами запроса
+         */
+        private double proximityWeight = 0.5;
+        /**
+         * Сколько лучших страниц пересчитывается с учетом близости слов
+         */
+        private int rerankDepth = 200;
+    }
+
+    @Getter
+    @Setter
+    public static class ResultCache {
+        private boolean enabled = true;
+        /**
+         * Максимальное количество запросов в кэше
+         */
+        private long maximumSize = 1000;
+        /**
+         * Сколько хранится результат запроса, секунд
+         */
+        private long ttlSeconds = 300;
+        /**
+         * Сколько лучших страниц сохраняется для запроса, чтобы следующие страницы выдачи брались из кэша
+         */
+        private int depth = 500;
+    }
+}
@@ -0,0 +1,24 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Настройки сегментов индекса на диске
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "segment-settings")
+public class SegmentSettings {
+    /**
+     * Загружать индекс при старте из сегмента и записывать сегмент после обхода
+     */
+    private boolean enabled = true;
+    /**
+     * Каталог файлов сегментов
+     */
+    private String directory = "index-segments";
+}
@@ -11,4 +11,16 @@ import lombok.Setter;
 public class Site {
     private String url;
     private String name;
+    /**
+     * Количество запросов в секунду к сайту, если не задано - берется из {@link CrawlerSettings}
+     */
+    private Double requestsPerSecond;
+    /**
+     * Максимальная глубина обхода от главной страницы, если не задано - берется из {@link CrawlerSettings}
+     */
+    private Integer maxDepth;
+    /**
+     * Максимальное количество страниц сайта, если не задано - берется из {@link CrawlerSettings}
+     */
+    private Integer maxPages;
 }
@@ -0,0 +1,24 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Настройки счетчиков статистики сайтов
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "statistics-settings")
+public class StatisticsSettings {
+    /**
+     * Как часто счетчики сверяются с БД, мс
+     */
+    private long reconcileIntervalMs = 600000;
+    /**
+     * Как часто перечитывается общее количество лемм, мс
+     */
+    private long lemmaTotalRefreshMs = 10000;
+}
@@ -0,0 +1,44 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Настройки пакетной записи лемм и индексов в БД
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "writer-settings")
+public class WriterSettings {
+    /**
+     * Сколько страниц может ожидать записи, после чего потоки обхода блокируются
+     */
+    private int queueCapacity = 1000;
+    /**
+     * Максимальное количество страниц в одной транзакции
+     */
+    private int pagesPerFlush = 50;
+    /**
+     * Максимальное количество строк в одном многострочном INSERT
+     */
+    private int rowsPerStatement = 500;
+    /**
+     * Сколько ждать новые страницы перед записью неполного пакета, мс
+     */
+    private long flushIntervalMs = 200;
+    /**
+     * Как часто накопленные изменения частот лемм переносятся в БД, мс
+     */
+    private long frequencyFlushIntervalMs = 1000;
+    /**
+     * Сколько раз повторять запись пакета после ошибки
+     */
+    private int maxRetries = 3;
+    /**
+     * Пауза перед первым повтором записи, мс, перед каждым следующим повтором удваивается
+     */
+    private long retryBackoffMs = 500;
+}
@@ -4,6 +4,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import searchengine.dto.statistics.PageInfoAfterSearching;
 import searchengine.dto.statistics.ResponseForSearching;
 import searchengine.dto.statistics.ShortInfo;
@@ -98,10 +99,12 @@ public class ApiController {
     /**
      * Производит поиск на страницах указанных сайтов по леммам из переданного запроса
      *
-     * @param query  Запрос в виде слова или строки
+     * @param query  Запрос в виде слова или строки, слова в двойных кавычках ищутся как фраза
      * @param site   url сайта в пределах которого необходимо найти страницы
      * @param offset Сдвиг от начала списка результатов
-     * @param limit  Количество результатов, которое необходимо вывести
+     * @param limit  Количество результатов, которое необходимо вывести, 0 - не больше
+     *               {@link searchengine.config.SearchSettings#getMaxResults()}, остальные - по курсору
+     * @param cursor Курсор {@link ResponseForSearching#getNextCursor()} из предыдущего ответа, заменяет {@code offset}
      * @return {@link ResponseEntity<ResponseForSearching>} Итоговый результат поиска со списком {@link PageInfoAfterSearching}
      */
     @GetMapping("/search")
@@ -109,11 +112,32 @@ public class ApiController {
             @RequestParam String query,
             @RequestParam(defaultValue = "") String site,
             @RequestParam(defaultValue = "0") Integer offset,
-            @RequestParam(defaultValue = "0") Integer limit) {
-        return indexingService.findingOnPagesSmth(query, site, offset, limit);
+            @RequestParam(defaultValue = "0") Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return indexingService.findingOnPagesSmth(query, site, offset, limit, cursor);
 
     }
 
+    /**
+     * Производит поиск и отдает результаты потоком NDJSON по мере построения сниппетов.
+     * Первая строка - {@link ResponseForSearching} без списка страниц, далее по строке
+     * {@link PageInfoAfterSearching} на каждую страницу
+     *
+     * @param query  Запрос в виде слова или строки, слова в двойных кавычках ищутся как фраза
+     * @param site   url сайта в пределах которого необходимо найти страницы
+     * @param limit  Количество результатов, 0 - все результаты
+     * @param cursor Курсор {@link ResponseForSearching#getNextCursor()} из предыдущего ответа
+     * @return {@link ResponseEntity<StreamingResponseBody>} Поток результатов поиска
+     */
+    @GetMapping(value = "/search", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamSearchOnPages(
+            @RequestParam String query,
+            @RequestParam(defaultValue = "") String site,
+            @RequestParam(defaultValue = "0") Integer limit,
+            @RequestParam(required = false) String cursor) {
+        return indexingService.streamSearch(query, site, limit, cursor);
+    }
+
 }
 
 
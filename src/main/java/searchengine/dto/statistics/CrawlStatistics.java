@@ -0,0 +1,30 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+/**
+ * Состояние обхода сайта
+ */
+@Data
+public class CrawlStatistics {
+    private String url;
+    private boolean running;
+    /**
+     * Адреса, ожидающие загрузки
+     */
+    private int queueSize;
+    /**
+     * Адреса, загружаемые в данный момент
+     */
+    private int inProgress;
+    private long pagesScheduled;
+    private long pagesCrawled;
+    /**
+     * Средняя скорость обхода с начала индексации сайта
+     */
+    private double pagesPerSecond;
+    /**
+     * Память под множество встреченных адресов
+     */
+    private long seenSetBytes;
+}
@@ -15,4 +15,12 @@ public class DetailedStatisticsItem {
     private String error;
     private long pages;
     private long lemmas;
+    /**
+     * Количество записей индекса (пар лемма-страница)
+     */
+    private long indexRows;
+    /**
+     * Размер загруженного HTML в байтах
+     */
+    private long bytesCrawled;
 }
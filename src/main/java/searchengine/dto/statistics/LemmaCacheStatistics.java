@@ -0,0 +1,15 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+/**
+ * Статистика кэша лемматизации
+ */
+@Data
+public class LemmaCacheStatistics {
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+}
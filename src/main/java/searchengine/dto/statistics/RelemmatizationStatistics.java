@@ -0,0 +1,34 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+/**
+ * Состояние переиндексации лемм сайта
+ */
+@Data
+public class RelemmatizationStatistics {
+    private String url;
+    private boolean running;
+    private boolean cancelled;
+    /**
+     * Причина остановки задачи с ошибкой, {@code null} если ошибок не было
+     */
+    private String error;
+    /**
+     * Страницы сайта на момент запуска
+     */
+    private long pagesTotal;
+    /**
+     * Страницы, переданные на лемматизацию, включая обработанные до перезапуска
+     */
+    private long pagesProcessed;
+    /**
+     * Идентификатор последней переданной страницы, с него продолжится работа после перезапуска
+     */
+    private long lastPageId;
+    private double pagesPerSecond;
+    /**
+     * Оценка оставшегося времени, {@code -1} если скорость еще неизвестна
+     */
+    private long etaSeconds;
+}
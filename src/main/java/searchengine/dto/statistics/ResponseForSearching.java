@@ -16,4 +16,12 @@ public class ResponseForSearching {
     private Boolean result;
     private Long count;
     private List<PageInfoAfterSearching> data;
+    /**
+     * Курсор следующей страницы выдачи, {@code null} если результатов больше нет
+     */
+    private String nextCursor;
+
+    public ResponseForSearching(Boolean result, Long count, List<PageInfoAfterSearching> data) {
+        this(result, count, data, null);
+    }
 }
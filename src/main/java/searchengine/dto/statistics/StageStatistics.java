@@ -0,0 +1,25 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+/**
+ * Статистика этапа конвейера индексации
+ */
+@Data
+public class StageStatistics {
+    private String stage;
+    /**
+     * Элементы, ожидающие обработки этапом
+     */
+    private int queueSize;
+    private long processed;
+    private long failed;
+    /**
+     * Среднее время обработки одного элемента
+     */
+    private double averageMillis;
+    /**
+     * Средняя пропускная способность с момента обработки первого элемента
+     */
+    private double itemsPerSecond;
+}
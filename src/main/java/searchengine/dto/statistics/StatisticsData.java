@@ -5,10 +5,15 @@ import lombok.Data;
 import java.util.List;
 
 /**
- * Собирательная сущность для {@link DetailedStatisticsItem} и {@link TotalStatistics}
+ * Собирательная сущность для {@link DetailedStatisticsItem}, {@link TotalStatistics}, {@link WriterStatistics}, {@link CrawlStatistics}, {@link LemmaCacheStatistics}, {@link StageStatistics} и {@link RelemmatizationStatistics}
  */
 @Data
 public class StatisticsData {
     private TotalStatistics total;
     private List<DetailedStatisticsItem> detailed;
+    private WriterStatistics writer;
+    private List<CrawlStatistics> crawl;
+    private LemmaCacheStatistics lemmaCache;
+    private List<StageStatistics> pipeline;
+    private List<RelemmatizationStatistics> relemmatization;
 }
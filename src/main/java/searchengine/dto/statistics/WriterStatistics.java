@@ -0,0 +1,25 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+/**
+ * Статистика пакетной записи лемм и индексов
+ */
+@Data
+public class WriterStatistics {
+    private int queueSize;
+    private long pagesWritten;
+    private long indexRowsWritten;
+    private long lemmaRowsUpserted;
+    private long batches;
+    private long failedBatches;
+    /**
+     * Страницы, которые не удалось записать и которые будут проиндексированы при следующем обходе
+     */
+    private long failedPages;
+    private double averageBatchMillis;
+    /**
+     * Записанные строки индекса в секунду времени записи
+     */
+    private double indexRowsPerSecond;
+}
@@ -41,4 +41,9 @@ public class Index {
      */
     @Column(name = "rank_value", nullable = false)
     private Long rank;
+    /**
+     * Позиции леммы среди слов страницы, разности в varint, {@code null} если позиции не сохранялись
+     */
+    @Column(columnDefinition = "BLOB")
+    private byte[] positions;
 }
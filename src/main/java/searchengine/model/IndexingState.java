@@ -0,0 +1,34 @@
+package searchengine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Служебное состояние индексации, сохраняемое между перезапусками приложения
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "indexing_state")
+public class IndexingState {
+    /**
+     * Название параметра
+     */
+    @Id
+    @Column(columnDefinition = "VARCHAR(64)")
+    private String name;
+    /**
+     * Значение параметра
+     */
+    @Column(columnDefinition = "VARCHAR(255)", nullable = false)
+    private String value;
+}
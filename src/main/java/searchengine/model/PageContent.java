@@ -0,0 +1,40 @@
+package searchengine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Сжатое HTML содержимое страницы. Хранится отдельно от {@link PageModel},
+ * чтобы выборки страниц не читали HTML
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "page_content")
+public class PageContent {
+    /**
+     * Идентификатор страницы
+     */
+    @Id
+    @Column(name = "page_id", nullable = false)
+    private long pageId;
+    /**
+     * Размер содержимого в байтах UTF-8 до сжатия
+     */
+    @Column(name = "raw_length", nullable = false)
+    private int rawLength;
+    /**
+     * Содержимое, сжатое {@link java.util.zip.Deflater}
+     */
+    @Column(columnDefinition = "LONGBLOB", nullable = false)
+    private byte[] data;
+}
@@ -47,10 +47,31 @@ public class PageModel {
      */
     private int code;
     /**
-     * Содержимое страницы
+     * Заголовок страницы, содержимое хранится отдельно в {@link PageContent}
      */
-    @Column(columnDefinition = "MEDIUMTEXT", nullable = false)
-    private String content;
+    @Column(columnDefinition = "VARCHAR(255)")
+    private String title;
+    /**
+     * Длина текста страницы без разметки
+     */
+    @Column(name = "text_length", nullable = false)
+    private int textLength;
+
+    /**
+     * Заголовок {@code ETag} последнего ответа сервера
+     */
+    @Column(columnDefinition = "VARCHAR(255)")
+    private String etag;
+    /**
+     * Заголовок {@code Last-Modified} последнего ответа сервера
+     */
+    @Column(name = "last_modified", columnDefinition = "VARCHAR(64)")
+    private String lastModified;
+    /**
+     * SHA-256 тела последнего ответа сервера, по нему определяется, изменилась ли страница
+     */
+    @Column(name = "content_hash", columnDefinition = "CHAR(64)")
+    private String contentHash;
 
     /**
      * Список индексов страницы, связывающие {@link Lemma} и {@link PageModel}
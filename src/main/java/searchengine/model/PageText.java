@@ -0,0 +1,50 @@
+package searchengine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Текст страницы без разметки и положение проиндексированных слов в нем.
+ * Заполняется при индексации и используется для построения сниппетов
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "page_text")
+public class PageText {
+    /**
+     * Идентификатор страницы
+     */
+    @Id
+    @Column(name = "page_id", nullable = false)
+    private long pageId;
+    /**
+     * Размер текста в байтах UTF-8 до сжатия
+     */
+    @Column(name = "raw_length", nullable = false)
+    private int rawLength;
+    /**
+     * Текст, сжатый {@link java.util.zip.Deflater}
+     */
+    @Column(columnDefinition = "LONGBLOB", nullable = false)
+    private byte[] text;
+    /**
+     * Леммы страницы через пробел, номер леммы - ее позиция в списке
+     */
+    @Column(columnDefinition = "MEDIUMTEXT", nullable = false)
+    private String lemmas;
+    /**
+     * Смещения слов и номера их лемм в varint
+     */
+    @Column(columnDefinition = "MEDIUMBLOB", nullable = false)
+    private byte[] tokens;
+}
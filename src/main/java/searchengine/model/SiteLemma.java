@@ -0,0 +1,43 @@
+package searchengine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * Частота леммы в пределах одного сайта
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "site_lemma", uniqueConstraints = @UniqueConstraint(columnNames = {"site", "lemma"}))
+public class SiteLemma {
+    /**
+     * Идентификатор записи
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", nullable = false)
+    private Long id;
+    /**
+     * Сайт
+     */
+    @ManyToOne
+    @JoinColumn(name = "site", referencedColumnName = "id", nullable = false)
+    private SiteModel site;
+    /**
+     * Нормализованная форма слова
+     */
+    @Column(name = "lemma", nullable = false)
+    private String lemma;
+    /**
+     * Количество страниц сайта, на которых встречается лемма
+     */
+    @Column(name = "frequency", nullable = false)
+    private Long frequency;
+}
@@ -59,7 +59,8 @@ public class SiteModel {
     private String name;
 
     /**
-     * Дочерние страницы
+     * Дочерние страницы. Коллекция загружается целиком, для обхода страниц сайта
+     * используется {@link searchengine.repository.PageRepository#findKeysAfter}
      */
     @OneToMany(mappedBy = "site", cascade = CascadeType.ALL)
     private List<PageModel> page = new ArrayList<>();
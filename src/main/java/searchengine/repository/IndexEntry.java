@@ -0,0 +1,14 @@
+package searchengine.repository;
+
+/**
+ * Проекция записи таблицы {@code indexes} без загрузки связанных сущностей
+ */
+public interface IndexEntry {
+    String getLemma();
+
+    Long getPageId();
+
+    Long getSiteId();
+
+    Long getRank();
+}
@@ -1,11 +1,17 @@
 package searchengine.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import searchengine.model.Index;
 import searchengine.model.Lemma;
 import searchengine.model.PageModel;
 
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 /**
  * Репозиторий по работе с сущностью {@link Index}
@@ -22,4 +28,15 @@ public interface IndexRepository extends JpaRepository<Index, Long> {
     boolean existsByPageAndLemma(PageModel page, Lemma lemma);
     Boolean existsByLemma(Lemma lemma);
     List<Index> findAllByLemma(Lemma lemma);
+
+    /**
+     * Потоково читает все записи индекса, отсортированные по лемме и странице.
+     * Должен вызываться внутри транзакции, поток нужно закрыть после использования.
+     *
+     * @return {@code Stream<IndexEntry>} Записи индекса без загрузки сущностей
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select i.lemma.lemma as lemma, i.page.id as pageId, i.page.site.id as siteId, i.rank as rank "
+            + "from Index i order by i.lemma.lemma, i.page.id")
+    Stream<IndexEntry> streamAllEntries();
 }
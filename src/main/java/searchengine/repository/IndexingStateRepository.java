@@ -0,0 +1,12 @@
+package searchengine.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import searchengine.model.IndexingState;
+
+/**
+ * Репозиторий для работы с сущностью {@link IndexingState}
+ */
+@Repository
+public interface IndexingStateRepository extends JpaRepository<IndexingState, String> {
+}
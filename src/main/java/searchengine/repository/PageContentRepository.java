@@ -0,0 +1,20 @@
+package searchengine.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import searchengine.model.PageContent;
+
+/**
+ * Репозиторий для работы с сущностью {@link PageContent}
+ */
+@Repository
+public interface PageContentRepository extends JpaRepository<PageContent, Long> {
+
+    /**
+     * @param pageId Идентификатор страницы
+     * @return {@link Integer} Размер сохраненного содержимого до сжатия, {@code null} если содержимого нет
+     */
+    @Query("select c.rawLength from PageContent c where c.pageId = :pageId")
+    Integer findRawLength(long pageId);
+}
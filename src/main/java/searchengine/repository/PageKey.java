@@ -0,0 +1,12 @@
+package searchengine.repository;
+
+/**
+ * Проекция страницы без загрузки сущности, ее сайта и индексов
+ */
+public interface PageKey {
+    Long getId();
+
+    Long getSiteId();
+
+    String getPath();
+}
@@ -1,10 +1,13 @@
 package searchengine.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import searchengine.model.PageModel;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -31,6 +34,25 @@ public interface PageRepository extends JpaRepository<PageModel, Long> {
      */
     PageModel findBySiteId(Long id);
 
+    /**
+     * @param siteId Идентификатор материнского сайта
+     * @return {@code boolean} Есть ли у сайта сохраненные страницы
+     */
+    boolean existsBySiteId(long siteId);
+
+    /**
+     * Читает следующую пачку страниц сайта по возрастанию id (keyset-пагинация): каждая пачка
+     * читается диапазоном по индексу {@code (site, id)}, сколько бы страниц ни было пройдено до нее
+     *
+     * @param siteId  Идентификатор материнского сайта
+     * @param afterId Id последней страницы предыдущей пачки, {@code 0} для первой пачки
+     * @param limit   Размер пачки, например {@code PageRequest.ofSize(200)}, смещение не используется
+     * @return {@code List<PageKey>} Страницы с id больше {@code afterId}
+     */
+    @Query("select p.id as id, p.site.id as siteId, p.path as path from PageModel p "
+            + "where p.site.id = :siteId and p.id > :afterId order by p.id")
+    List<PageKey> findKeysAfter(long siteId, long afterId, Pageable limit);
+
 
     /**
      * Находит страницу по ее идентификатору и подгружает связанные индексы.
@@ -0,0 +1,12 @@
+package searchengine.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import searchengine.model.PageText;
+
+/**
+ * Репозиторий для работы с сущностью {@link PageText}
+ */
+@Repository
+public interface PageTextRepository extends JpaRepository<PageText, Long> {
+}
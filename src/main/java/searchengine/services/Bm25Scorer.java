@@ -0,0 +1,51 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.ScoringMode;
+import searchengine.config.SearchSettings;
+
+/**
+ * Релевантность по формуле Okapi BM25. Нормализация по длине страницы считается
+ * один раз на страницу, после чего каждая лемма запроса обрабатывается плоским
+ * циклом по примитивным массивам без ветвлений.
+ */
+@Component
+@RequiredArgsConstructor
+public class Bm25Scorer implements RelevanceScorer {
+
+    private final SearchSettings searchSettings;
+
+    @Override
+    public ScoringMode mode() {
+        return ScoringMode.BM25;
+    }
+
+    @Override
+    public double[] score(ScoringInput input) {
+        double k1 = searchSettings.getBm25().getK1();
+        double b = searchSettings.getBm25().getB();
+        double[] lengths = input.pageLengths();
+        double averageLength = input.averagePageLength() > 0 ? input.averagePageLength() : 1.0;
+        int pages = lengths.length;
+
+        double[] norms = new double[pages];
+        for (int i = 0; i < pages; i++) {
+            norms[i] = Math.max(k1 * (1 - b + b * lengths[i] / averageLength), Double.MIN_VALUE);
+        }
+
+        double[] scores = new double[pages];
+        int[][] termFrequencies = input.termFrequencies();
+        for (int t = 0; t < termFrequencies.length; t++) {
+            double df = input.documentFrequencies()[t];
+            double idf = Math.log(1 + (input.pageCount() - df + 0.5) / (df + 0.5));
+            double weight = idf * (k1 + 1);
+            int[] column = termFrequencies[t];
+            for (int i = 0; i < pages; i++) {
+                double tf = column[i];
+                scores[i] += weight * tf / (tf + norms[i]);
+            }
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,253 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerSettings;
+import searchengine.dto.statistics.CrawlStatistics;
+import searchengine.services.SiteFrontier.CrawlTask;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Планировщик обхода сайтов.
+ * <p>
+ * Для каждого сайта ведется своя очередь {@link SiteFrontier}. Поток-диспетчер забирает из очередей адреса
+ * по кругу, по одному из каждого сайта, поэтому большой сайт не задерживает обход маленьких, и запускает
+ * их загрузку, не дожидаясь ответа. Одновременно обрабатывается не больше
+ * {@link CrawlerSettings#getMaxConcurrentRequests()} страниц, и у каждого сайта не больше равной доли от них.
+ * Разбор и сохранение загруженных страниц выполняет пул из {@link CrawlerSettings#getWorkerThreads()} потоков,
+ * так что количество запросов в работе не зависит от количества потоков. Память и количество потоков
+ * не зависят от глубины сайта.
+ * <p>
+ * Когда очередь сайта опустела и все его страницы обработаны, обход сайта завершается
+ * через {@link PagesFinder#finish(String)}. После завершения обхода всех сайтов пересобирается
+ * сегмент индекса ({@link IndexSegmentStore#rebuildAsync()}).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CrawlScheduler {
+
+    private final CrawlerSettings settings;
+    private final MeterRegistry meterRegistry;
+    private final IndexSegmentStore indexSegmentStore;
+
+    /**
+     * Сайты, обход которых еще не завершен
+     */
+    private final List<SiteFrontier> frontiers = new ArrayList<>();
+    /**
+     * Последний обход каждого сайта, нужен для статистики
+     */
+    private final Map<String, SiteFrontier> lastFrontiers = new LinkedHashMap<>();
+    /**
+     * Сайты, которые удалены из очереди, но статус которых еще не записан
+     */
+    private int finishing;
+    /**
+     * Позиция сайта, с которого начнется поиск следующего адреса
+     */
+    private int cursor;
+    private ExecutorService workers;
+    private Thread dispatcher;
+    /**
+     * Свободные места для страниц в работе: от выбора адреса до обработки ответа
+     */
+    private Semaphore requests;
+    private Counter pageFailures;
+    private Counter finishFailures;
+    private Counter seenRejections;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(settings.getWorkerThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "crawler-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        requests = new Semaphore(settings.getMaxConcurrentRequests());
+        dispatcher = new Thread(this::dispatchLoop, "crawl-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        Gauge.builder("searchengine.crawl.frontier", this, scheduler -> scheduler.frontierSize(SiteFrontier::queued))
+                .description("Адреса в очереди обхода")
+                .tag("state", "queued")
+                .register(meterRegistry);
+        Gauge.builder("searchengine.crawl.frontier", this, scheduler -> scheduler.frontierSize(SiteFrontier::inProgress))
+                .description("Адреса, которые загружаются или обрабатываются")
+                .tag("state", "in-progress")
+                .register(meterRegistry);
+        pageFailures = Counter.builder("searchengine.crawl.failures")
+                .description("Ошибки обхода")
+                .tag("stage", "page")
+                .register(meterRegistry);
+        finishFailures = Counter.builder("searchengine.crawl.failures")
+                .description("Ошибки обхода")
+                .tag("stage", "finish")
+                .register(meterRegistry);
+        seenRejections = Counter.builder("searchengine.crawl.seen.rejected")
+                .description("Адреса, отклоненные из-за ограничения памяти множества встреченных адресов")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.interrupt();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Запускает обход сайта с главной страницы
+     *
+     * @param siteUrl     Адрес главной страницы
+     * @param pagesFinder Обработчик страниц сайта
+     * @param maxDepth    Максимальная глубина обхода, {@code 0} - без ограничения
+     * @param maxPages    Максимальное количество страниц, {@code 0} - без ограничения
+     */
+    public synchronized void crawl(String siteUrl, PagesFinder pagesFinder, int maxDepth, int maxPages) {
+        SiteFrontier frontier = new SiteFrontier(siteUrl, pagesFinder, maxDepth, maxPages,
+                new UrlSeenSet(settings.getSeenSetMaxBytes(), settings.isSeenSetBloomFilter(), seenRejections));
+        frontier.offer(UrlNormalizer.normalize(siteUrl), 0);
+        frontiers.add(frontier);
+        lastFrontiers.put(siteUrl, frontier);
+        notifyAll();
+    }
+
+    /**
+     * Останавливает обход всех сайтов. Страницы, которые уже загружаются, будут сохранены.
+     */
+    public synchronized void stop() {
+        frontiers.forEach(SiteFrontier::stop);
+        notifyAll();
+    }
+
+    /**
+     * @return {@code true} если обход хотя бы одного сайта еще не завершен
+     */
+    public synchronized boolean isRunning() {
+        return !frontiers.isEmpty() || finishing > 0;
+    }
+
+    /**
+     * @return {@code List<CrawlStatistics>} Состояние последнего обхода каждого сайта
+     */
+    public synchronized List<CrawlStatistics> getStatistics() {
+        return lastFrontiers.values().stream().map(SiteFrontier::getStatistics).toList();
+    }
+
+    private synchronized int frontierSize(ToIntFunction<SiteFrontier> size) {
+        return frontiers.stream().mapToInt(size).sum();
+    }
+
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            CrawlTask task;
+            try {
+                requests.acquire();
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            SiteFrontier frontier = task.frontier();
+            if (task.url() == null) {
+                requests.release();
+                workers.execute(() -> finish(frontier));
+                continue;
+            }
+            try {
+                frontier.getPagesFinder().processPage(task.url(), workers)
+                        .whenComplete((links, error) -> completeSafely(task, links, error));
+            } catch (RuntimeException e) {
+                completeSafely(task, null, e);
+            }
+        }
+    }
+
+    private void completeSafely(CrawlTask task, List<String> links, Throwable error) {
+        if (error != null) {
+            pageFailures.increment();
+            log.error("Failed to process {} of site {}", task.url(), task.frontier().getSiteUrl(), error);
+        }
+        try {
+            complete(task, links == null ? List.of() : links);
+        } finally {
+            requests.release();
+        }
+    }
+
+    /**
+     * Выбирает следующий адрес, перебирая сайты по кругу. Если обход сайта закончен,
+     * сайт удаляется из очереди и возвращается задача завершения с {@code url == null}.
+     * Сайт, у которого в работе уже равная доля от {@link CrawlerSettings#getMaxConcurrentRequests()} страниц,
+     * пропускается: медленный сайт не должен занять все места.
+     */
+    private synchronized CrawlTask take() throws InterruptedException {
+        while (true) {
+            int size = frontiers.size();
+            int share = Math.max(1, settings.getMaxConcurrentRequests() / Math.max(1, size));
+            for (int i = 0; i < size; i++) {
+                int index = (cursor + i) % size;
+                SiteFrontier frontier = frontiers.get(index);
+                if (frontier.isDone()) {
+                    frontiers.remove(index);
+                    cursor = frontiers.isEmpty() ? 0 : index % frontiers.size();
+                    finishing++;
+                    return new CrawlTask(frontier, null, 0);
+                }
+                if (frontier.inProgress() >= share) {
+                    continue;
+                }
+                CrawlTask task = frontier.poll();
+                if (task != null) {
+                    cursor = (index + 1) % size;
+                    return task;
+                }
+            }
+            wait();
+        }
+    }
+
+    private synchronized void complete(CrawlTask task, List<String> links) {
+        task.frontier().complete(task, links);
+        notifyAll();
+    }
+
+    private void finish(SiteFrontier frontier) {
+        String error;
+        synchronized (this) {
+            error = frontier.getError() != null ? frontier.getError()
+                    : frontier.isStopped() ? "interrupted by user" : null;
+        }
+        try {
+            frontier.getPagesFinder().finish(error);
+        } catch (Exception e) {
+            finishFailures.increment();
+            log.error("Failed to finish crawl of {}", frontier.getSiteUrl(), e);
+        } finally {
+            boolean crawlFinished;
+            synchronized (this) {
+                frontier.markFinished();
+                finishing--;
+                crawlFinished = frontiers.isEmpty() && finishing == 0;
+            }
+            if (crawlFinished) {
+                indexSegmentStore.rebuildAsync();
+            }
+        }
+    }
+}
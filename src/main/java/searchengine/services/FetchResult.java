@@ -0,0 +1,88 @@
+package searchengine.services;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Результат загрузки страницы {@link PageFetcher}
+ *
+ * @param url        Запрошенный адрес
+ * @param statusCode Код http ответа
+ * @param headers    Заголовки ответа
+ * @param body       Тело ответа
+ */
+public record FetchResult(String url, int statusCode, HttpHeaders headers, byte[] body) {
+
+    private static final Pattern CHARSET = Pattern.compile("charset=\\s*\"?([^\\s;\"]+)", Pattern.CASE_INSENSITIVE);
+
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * @return {@code true} если сервер ответил на условный запрос, что страница не изменилась
+     */
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+
+    public String etag() {
+        return headers.firstValue("ETag").orElse(null);
+    }
+
+    public String lastModified() {
+        return headers.firstValue("Last-Modified").orElse(null);
+    }
+
+    /**
+     * @return {@link String} SHA-256 тела ответа в шестнадцатеричном виде
+     */
+    public String contentHash() {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return {@code true} если сервер вернул HTML
+     */
+    public boolean isHtml() {
+        return isHtml(headers);
+    }
+
+    /**
+     * @param headers Заголовки ответа
+     * @return {@code true} если {@code Content-Type} ответа - HTML или не указан
+     */
+    static boolean isHtml(HttpHeaders headers) {
+        String contentType = headers.firstValue("Content-Type").orElse("text/html").toLowerCase();
+        return contentType.startsWith("text/html") || contentType.contains("xhtml");
+    }
+
+    /**
+     * Разбирает тело ответа как HTML. Кодировка берется из заголовка
+     * {@code Content-Type}, а если ее там нет - определяется Jsoup по содержимому.
+     *
+     * @return {@link Document}
+     * @throws IOException при ошибке чтения тела ответа
+     */
+    public Document parse() throws IOException {
+        String charset = headers.firstValue("Content-Type")
+                .map(CHARSET::matcher)
+                .filter(Matcher::find)
+                .map(matcher -> matcher.group(1))
+                .orElse(null);
+        return Jsoup.parse(new ByteArrayInputStream(body), charset, url);
+    }
+}
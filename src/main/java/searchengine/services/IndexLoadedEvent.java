@@ -0,0 +1,10 @@
+package searchengine.services;
+
+/**
+ * Публикуется {@link InvertedIndex} после загрузки индекса при старте.
+ * <p>
+ * Фоновые задачи, которые пишут индекс, запускаются только по этому событию: запись до загрузки
+ * учла бы страницы дважды или была бы затерта загруженными списками.
+ */
+public record IndexLoadedEvent() {
+}
@@ -0,0 +1,422 @@
+package searchengine.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Неизменяемый сегмент инвертированного индекса в файле, отображенном в память через {@link FileChannel#map}.
+ * Открытие читает только заголовок и таблицу сайтов, остальное читается из отображения по запросу.
+ * <p>
+ * Формат файла (числа в big-endian, смещения от начала файла):
+ * <ul>
+ *     <li>заголовок {@value #HEADER_SIZE} байт: сигнатура, версия, поколение, количества сайтов, лемм и страниц,
+ *     смещения разделов;</li>
+ *     <li>сайты: id, количество страниц, сумма длин страниц, количество лемм и записей индекса;</li>
+ *     <li>словарь лемм, отсортированных по байтам UTF-8, блоками по {@value #BLOCK_SIZE}: первая лемма блока
+ *     целиком, следующие - длиной общего префикса с предыдущей и остатком (front coding),
+ *     и таблица смещений блоков для двоичного поиска;</li>
+ *     <li>смещение списков страниц каждой леммы;</li>
+ *     <li>страницы по возрастанию id: id, номер сайта, длина, и для каждой страницы номера ее лемм
+ *     разностями в varint;</li>
+ *     <li>списки страниц: для каждой леммы записи по сайтам - номер сайта, длина списка, размер записи в байтах,
+ *     разности id страниц в varint и ранги в varint.</li>
+ * </ul>
+ * Файл пишет {@link IndexSegmentWriter}.
+ */
+public final class IndexSegment {
+
+    static final int MAGIC = 0x53454731;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+    static final int BLOCK_SIZE = 16;
+    static final int SITE_RECORD = 32;
+    static final int PAGE_RECORD = 20;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final long generation;
+    private final int lemmaCount;
+    private final int pageCount;
+    private final int sitesOffset;
+    private final int dictionaryIndexOffset;
+    private final int dictionaryOffset;
+    private final int postingOffsetsOffset;
+    private final int pagesOffset;
+    private final int pageLemmaOffsetsOffset;
+    private final int pageLemmasOffset;
+    private final int postingsOffset;
+    private final long[] siteIds;
+
+    private IndexSegment(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an index segment: " + path);
+        }
+        generation = buffer.getLong(8);
+        int siteCount = buffer.getInt(16);
+        lemmaCount = buffer.getInt(20);
+        pageCount = buffer.getInt(24);
+        sitesOffset = (int) buffer.getLong(32);
+        dictionaryIndexOffset = (int) buffer.getLong(40);
+        dictionaryOffset = (int) buffer.getLong(48);
+        postingOffsetsOffset = (int) buffer.getLong(56);
+        pagesOffset = (int) buffer.getLong(64);
+        pageLemmaOffsetsOffset = (int) buffer.getLong(72);
+        pageLemmasOffset = (int) buffer.getLong(80);
+        postingsOffset = (int) buffer.getLong(88);
+        if (buffer.getLong(96) != buffer.capacity()) {
+            throw new IOException("Truncated index segment: " + path);
+        }
+        siteIds = new long[siteCount];
+        for (int i = 0; i < siteCount; i++) {
+            siteIds[i] = buffer.getLong(sitesOffset + i * SITE_RECORD);
+        }
+    }
+
+    /**
+     * Отображает файл сегмента в память
+     *
+     * @param path Файл, записанный {@link IndexSegmentWriter}
+     * @return {@link IndexSegment}
+     * @throws IOException если файл не читается или не является сегментом
+     */
+    public static IndexSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Index segment is too large to map: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new IndexSegment(path, buffer);
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public long generation() {
+        return generation;
+    }
+
+    public int siteCount() {
+        return siteIds.length;
+    }
+
+    public long siteId(int site) {
+        return siteIds[site];
+    }
+
+    public int sitePageCount(int site) {
+        return buffer.getInt(sitesOffset + site * SITE_RECORD + 8);
+    }
+
+    public long siteTotalLength(int site) {
+        return buffer.getLong(sitesOffset + site * SITE_RECORD + 12);
+    }
+
+    public int siteLemmaCount(int site) {
+        return buffer.getInt(sitesOffset + site * SITE_RECORD + 20);
+    }
+
+    public long siteIndexRows(int site) {
+        return buffer.getLong(sitesOffset + site * SITE_RECORD + 24);
+    }
+
+    /**
+     * Длина списка страниц леммы на сайте без чтения самого списка
+     *
+     * @param site  Номер сайта в сегменте
+     * @param lemma Лемма
+     * @return {@code int} Количество страниц, {@code 0} если лемма на сайте не встречается
+     */
+    public int documentFrequency(int site, String lemma) {
+        int ordinal = ordinal(lemma);
+        if (ordinal < 0) {
+            return 0;
+        }
+        int[] position = {postingsStart(ordinal)};
+        int entries = readVarint(position);
+        for (int e = 0; e < entries; e++) {
+            int entrySite = readVarint(position);
+            int size = readVarint(position);
+            int bytes = readVarint(position);
+            if (entrySite == site) {
+                return size;
+            }
+            position[0] += bytes;
+        }
+        return 0;
+    }
+
+    /**
+     * Читает список страниц леммы на сайте
+     *
+     * @param site  Номер сайта в сегменте
+     * @param lemma Лемма
+     * @return {@link Postings} Страницы по возрастанию id с рангами или {@code null}, если лемма на сайте не встречается
+     */
+    public Postings postings(int site, String lemma) {
+        int ordinal = ordinal(lemma);
+        if (ordinal < 0) {
+            return null;
+        }
+        int[] position = {postingsStart(ordinal)};
+        int entries = readVarint(position);
+        for (int e = 0; e < entries; e++) {
+            int entrySite = readVarint(position);
+            int size = readVarint(position);
+            int bytes = readVarint(position);
+            if (entrySite != site) {
+                position[0] += bytes;
+                continue;
+            }
+            long[] pageIds = new long[size];
+            int[] ranks = new int[size];
+            long pageId = 0;
+            for (int i = 0; i < size; i++) {
+                pageId += readVarlong(position);
+                pageIds[i] = pageId;
+            }
+            for (int i = 0; i < size; i++) {
+                ranks[i] = readVarint(position);
+            }
+            return new Postings(pageIds, ranks);
+        }
+        return null;
+    }
+
+    /**
+     * Перебирает все леммы сайта с длиной их списков страниц
+     *
+     * @param site     Номер сайта в сегменте
+     * @param consumer Получает лемму и длину ее списка
+     */
+    public void forEachLemma(int site, LemmaConsumer consumer) {
+        byte[] term = new byte[64];
+        for (int block = 0; block * BLOCK_SIZE < lemmaCount; block++) {
+            int[] position = {blockStart(block)};
+            int termLength = 0;
+            int count = Math.min(BLOCK_SIZE, lemmaCount - block * BLOCK_SIZE);
+            for (int k = 0; k < count; k++) {
+                int shared = k == 0 ? 0 : readVarint(position);
+                int suffix = readVarint(position);
+                term = ensure(term, shared + suffix);
+                buffer.get(position[0], term, shared, suffix);
+                position[0] += suffix;
+                termLength = shared + suffix;
+                int size = siteSize(block * BLOCK_SIZE + k, site);
+                if (size > 0) {
+                    consumer.accept(new String(term, 0, termLength, StandardCharsets.UTF_8), size);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pageId Идентификатор страницы
+     * @return {@code true} если страница есть в сегменте
+     */
+    public boolean containsPage(long pageId) {
+        return pageIndex(pageId) >= 0;
+    }
+
+    /**
+     * @param pageId Идентификатор страницы
+     * @return {@code long} Длина страницы (сумма рангов ее лемм), {@code 0} если страницы нет в сегменте
+     */
+    public long pageLength(long pageId) {
+        int page = pageIndex(pageId);
+        return page < 0 ? 0 : buffer.getLong(pagesOffset + page * PAGE_RECORD + 12);
+    }
+
+    /**
+     * @param pageId Идентификатор страницы
+     * @return {@link Page} Сайт, длина и леммы страницы или {@code null}, если страницы нет в сегменте
+     */
+    public Page page(long pageId) {
+        int page = pageIndex(pageId);
+        if (page < 0) {
+            return null;
+        }
+        int record = pagesOffset + page * PAGE_RECORD;
+        int[] position = {pageLemmasOffset + (int) buffer.getLong(pageLemmaOffsetsOffset + page * 8)};
+        String[] lemmas = new String[readVarint(position)];
+        int ordinal = 0;
+        for (int i = 0; i < lemmas.length; i++) {
+            ordinal += readVarint(position);
+            lemmas[i] = lemmaAt(ordinal);
+        }
+        return new Page(siteIds[buffer.getInt(record + 8)], buffer.getLong(record + 12), lemmas);
+    }
+
+    private int pageIndex(long pageId) {
+        int low = 0;
+        int high = pageCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long id = buffer.getLong(pagesOffset + middle * PAGE_RECORD);
+            if (id < pageId) {
+                low = middle + 1;
+            } else if (id > pageId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Двоичный поиск блока по первой лемме и перебор лемм внутри блока
+     *
+     * @return {@code int} Номер леммы в словаре или {@code -1}
+     */
+    private int ordinal(String lemma) {
+        byte[] key = lemma.getBytes(StandardCharsets.UTF_8);
+        int blocks = (lemmaCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int low = 0;
+        int high = blocks - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int[] position = {blockStart(middle)};
+            int length = readVarint(position);
+            int compare = Arrays.compareUnsigned(termBytes(position[0], length), key);
+            if (compare == 0) {
+                return middle * BLOCK_SIZE;
+            }
+            if (compare < 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (found < 0) {
+            return -1;
+        }
+        int[] position = {blockStart(found)};
+        byte[] term = new byte[Math.max(64, key.length)];
+        int count = Math.min(BLOCK_SIZE, lemmaCount - found * BLOCK_SIZE);
+        for (int k = 0; k < count; k++) {
+            int shared = k == 0 ? 0 : readVarint(position);
+            int suffix = readVarint(position);
+            term = ensure(term, shared + suffix);
+            buffer.get(position[0], term, shared, suffix);
+            position[0] += suffix;
+            int compare = Arrays.compareUnsigned(term, 0, shared + suffix, key, 0, key.length);
+            if (compare == 0) {
+                return found * BLOCK_SIZE + k;
+            }
+            if (compare > 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private String lemmaAt(int ordinal) {
+        int block = ordinal / BLOCK_SIZE;
+        int[] position = {blockStart(block)};
+        byte[] term = new byte[64];
+        int termLength = 0;
+        for (int k = 0; k <= ordinal - block * BLOCK_SIZE; k++) {
+            int shared = k == 0 ? 0 : readVarint(position);
+            int suffix = readVarint(position);
+            term = ensure(term, shared + suffix);
+            buffer.get(position[0], term, shared, suffix);
+            position[0] += suffix;
+            termLength = shared + suffix;
+        }
+        return new String(term, 0, termLength, StandardCharsets.UTF_8);
+    }
+
+    private int siteSize(int ordinal, int site) {
+        int[] position = {postingsStart(ordinal)};
+        int entries = readVarint(position);
+        for (int e = 0; e < entries; e++) {
+            int entrySite = readVarint(position);
+            int size = readVarint(position);
+            int bytes = readVarint(position);
+            if (entrySite == site) {
+                return size;
+            }
+            position[0] += bytes;
+        }
+        return 0;
+    }
+
+    private int blockStart(int block) {
+        return dictionaryOffset + buffer.getInt(dictionaryIndexOffset + block * 4);
+    }
+
+    private int postingsStart(int ordinal) {
+        return postingsOffset + (int) buffer.getLong(postingOffsetsOffset + ordinal * 8);
+    }
+
+    private byte[] termBytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    private static byte[] ensure(byte[] term, int length) {
+        return term.length >= length ? term : Arrays.copyOf(term, Math.max(length, term.length * 2));
+    }
+
+    private int readVarint(int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private long readVarlong(int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Список страниц леммы на одном сайте
+     *
+     * @param pageIds Идентификаторы страниц по возрастанию
+     * @param ranks   Ранг леммы на каждой странице
+     */
+    public record Postings(long[] pageIds, int[] ranks) {
+    }
+
+    /**
+     * Страница сегмента
+     *
+     * @param siteId Идентификатор сайта
+     * @param length Сумма рангов лемм страницы
+     * @param lemmas Леммы страницы
+     */
+    public record Page(long siteId, long length, String[] lemmas) {
+    }
+
+    @FunctionalInterface
+    public interface LemmaConsumer {
+        void accept(String lemma, int documentFrequency);
+    }
+}
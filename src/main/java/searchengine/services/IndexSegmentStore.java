@@ -0,0 +1,243 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.SegmentSettings;
+import searchengine.model.IndexingState;
+import searchengine.repository.IndexEntry;
+import searchengine.repository.IndexRepository;
+import searchengine.repository.IndexingStateRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Файлы сегментов индекса ({@link IndexSegment}).
+ * <p>
+ * Источником данных остается таблица {@code indexes}: сегмент пересобирается из нее целиком после
+ * завершения обхода ({@link #rebuildAsync()}) и только подменяет загрузку индекса при старте.
+ * Поколение актуального сегмента хранится в {@link IndexingState}; первая запись индекса после сборки
+ * помечает сегмент устаревшим, и следующий старт читает индекс из БД.
+ * <p>
+ * Запись индекса во время сборки делает сегмент неполным, поэтому такой сегмент отбрасывается.
+ * Для этого {@link LemmaIndexWriter} оборачивает каждую запись в {@link #beginWrite()} и {@link #endWrite()}.
+ * <p>
+ * Длительность сборок публикуется таймером {@code searchengine.segment.rebuild} с тегом {@code outcome}
+ * ({@code written}, {@code skipped}, {@code discarded}, {@code failed}), размер последнего записанного
+ * сегмента - {@code searchengine.segment.size}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndexSegmentStore {
+
+    private static final String STATE_NAME = "index_segment";
+    private static final String STALE = "stale";
+
+    private final IndexRepository indexRepository;
+    private final IndexingStateRepository indexingStateRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final SegmentSettings settings;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicInteger activeWrites = new AtomicInteger();
+    /**
+     * Увеличивается в начале каждой записи индекса
+     */
+    private final AtomicLong modifications = new AtomicLong();
+    /**
+     * Сборка запрошена, но еще не началась
+     */
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+    /**
+     * Сегмент в БД отмечен актуальным
+     */
+    private volatile boolean current;
+    /**
+     * Сегмент, из которого загружен индекс, его файл не удаляется
+     */
+    private volatile Path attached;
+    /**
+     * Размер последнего записанного сегмента в байтах
+     */
+    private final AtomicLong size = new AtomicLong();
+    private ExecutorService writer;
+
+    @PostConstruct
+    public void init() {
+        current = indexingStateRepository.findById(STATE_NAME)
+                .map(state -> !STALE.equals(state.getValue())).orElse(false);
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "index-segment-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("searchengine.segment.size", size, AtomicLong::get)
+                .baseUnit("bytes")
+                .description("Size of the last written index segment")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        writer.shutdownNow();
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Открывает актуальный сегмент
+     *
+     * @return {@link IndexSegment} или {@code null}, если сегменты выключены, сегмент устарел или файл не читается
+     */
+    public IndexSegment openCurrent() {
+        if (!settings.isEnabled() || !current) {
+            return null;
+        }
+        long generation = indexingStateRepository.findById(STATE_NAME)
+                .map(IndexingState::getValue).filter(value -> !STALE.equals(value)).map(Long::parseLong).orElse(-1L);
+        Path path = file(generation);
+        if (generation < 0 || !Files.exists(path)) {
+            return null;
+        }
+        try {
+            IndexSegment segment = IndexSegment.open(path);
+            if (segment.generation() != generation) {
+                return null;
+            }
+            attached = path;
+            return segment;
+        } catch (IOException e) {
+            log.warn("Failed to open index segment {}, loading index from database", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Вызывается перед записью индекса в БД
+     */
+    public void beginWrite() {
+        activeWrites.incrementAndGet();
+        modifications.incrementAndGet();
+        if (current) {
+            markStale();
+        }
+    }
+
+    /**
+     * Вызывается после записи индекса в БД и в {@link InvertedIndex}
+     */
+    public void endWrite() {
+        activeWrites.decrementAndGet();
+    }
+
+    /**
+     * Запускает сборку сегмента в отдельном потоке. Повторные запросы до начала сборки объединяются
+     */
+    public void rebuildAsync() {
+        if (!settings.isEnabled() || !rebuildRequested.compareAndSet(false, true)) {
+            return;
+        }
+        writer.execute(() -> {
+            rebuildRequested.set(false);
+            long start = System.nanoTime();
+            String outcome;
+            try {
+                outcome = rebuild();
+            } catch (Exception e) {
+                outcome = "failed";
+                log.error("Index segment rebuild failed", e);
+            }
+            meterRegistry.timer("searchengine.segment.rebuild", "outcome", outcome)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        });
+    }
+
+    private synchronized void markStale() {
+        if (current) {
+            current = false;
+            indexingStateRepository.save(new IndexingState(STATE_NAME, STALE));
+        }
+    }
+
+    /**
+     * @return {@link String} Результат сборки: {@code written}, {@code skipped} или {@code discarded}
+     */
+    private String rebuild() throws IOException {
+        // счетчик читается до проверки: запись, начатая после этого момента, изменит его
+        long before = modifications.get();
+        if (activeWrites.get() > 0) {
+            log.info("Index segment rebuild skipped: index is being written");
+            return "skipped";
+        }
+        long generation = System.currentTimeMillis();
+        Path directory = Paths.get(settings.getDirectory());
+        Files.createDirectories(directory);
+        Path target = file(generation);
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        long start = System.nanoTime();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<IndexEntry> entries = indexRepository.streamAllEntries()) {
+                    IndexSegmentWriter.write(temporary, generation, entries.iterator());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(temporary);
+            throw e.getCause();
+        }
+        synchronized (this) {
+            if (activeWrites.get() > 0 || modifications.get() != before) {
+                Files.deleteIfExists(temporary);
+                log.info("Index segment rebuild discarded: index changed while writing");
+                return "discarded";
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            indexingStateRepository.save(new IndexingState(STATE_NAME, String.valueOf(generation)));
+            current = true;
+        }
+        size.set(Files.size(target));
+        log.info("Index segment {} written in {} ms, {} bytes", target,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), size.get());
+        deleteOldSegments(directory, target);
+        return "written";
+    }
+
+    private void deleteOldSegments(Path directory, Path keep) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "index-*.seg")) {
+            for (Path file : files) {
+                if (!file.equals(keep) && !file.equals(attached)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete old index segments in {}", directory, e);
+        }
+    }
+
+    private Path file(long generation) {
+        return Paths.get(settings.getDirectory(), "index-" + generation + ".seg");
+    }
+}
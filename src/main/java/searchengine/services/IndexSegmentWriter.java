@@ -0,0 +1,293 @@
+package searchengine.services;
+
+import searchengine.repository.IndexEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Запись сегмента индекса в формате {@link IndexSegment}.
+ * <p>
+ * Записи индекса читаются один раз в порядке леммы и страницы: списки страниц каждой леммы сразу
+ * кодируются во временный файл, в памяти остаются только словарь, смещения списков и номера лемм страниц.
+ * Затем словарь сортируется и файл собирается целиком.
+ */
+final class IndexSegmentWriter {
+
+    private final Map<Long, Integer> siteIndexes = new LinkedHashMap<>();
+    private final List<SiteStats> sites = new ArrayList<>();
+    /**
+     * Леммы в порядке чтения, номер в списке - временный номер леммы
+     */
+    private final List<byte[]> lemmas = new ArrayList<>();
+    private long[] postingOffsets = new long[1024];
+    private final Map<Long, PageBuilder> pages = new HashMap<>();
+
+    private String currentLemma;
+    private int[] entrySites = new int[256];
+    private long[] entryPages = new long[256];
+    private int[] entryRanks = new int[256];
+    private int entryCount;
+    private long written;
+
+    private IndexSegmentWriter() {
+    }
+
+    /**
+     * Записывает сегмент
+     *
+     * @param target     Файл сегмента
+     * @param generation Поколение сегмента
+     * @param entries    Записи индекса, отсортированные по лемме и странице
+     * @throws IOException если файл не записан или сегмент больше 2 ГБ
+     */
+    static void write(Path target, long generation, Iterator<IndexEntry> entries) throws IOException {
+        Path postingsFile = Files.createTempFile(target.toAbsolutePath().getParent(), "postings", ".tmp");
+        try {
+            IndexSegmentWriter writer = new IndexSegmentWriter();
+            try (OutputStream postings = new BufferedOutputStream(Files.newOutputStream(postingsFile), 1 << 16)) {
+                while (entries.hasNext()) {
+                    writer.add(entries.next(), postings);
+                }
+                writer.flushLemma(postings);
+            }
+            writer.writeFile(target, generation, postingsFile);
+        } finally {
+            Files.deleteIfExists(postingsFile);
+        }
+    }
+
+    private void add(IndexEntry entry, OutputStream postings) throws IOException {
+        if (!entry.getLemma().equals(currentLemma)) {
+            flushLemma(postings);
+            currentLemma = entry.getLemma();
+            if (lemmas.size() == postingOffsets.length) {
+                postingOffsets = Arrays.copyOf(postingOffsets, lemmas.size() * 2);
+            }
+            postingOffsets[lemmas.size()] = written;
+            lemmas.add(currentLemma.getBytes(StandardCharsets.UTF_8));
+        }
+        int site = siteIndexes.computeIfAbsent(entry.getSiteId(), id -> {
+            sites.add(new SiteStats(id));
+            return sites.size() - 1;
+        });
+        int rank = entry.getRank().intValue();
+        if (entryCount == entryPages.length) {
+            entrySites = Arrays.copyOf(entrySites, entryCount * 2);
+            entryPages = Arrays.copyOf(entryPages, entryCount * 2);
+            entryRanks = Arrays.copyOf(entryRanks, entryCount * 2);
+        }
+        entrySites[entryCount] = site;
+        entryPages[entryCount] = entry.getPageId();
+        entryRanks[entryCount] = rank;
+        entryCount++;
+        pages.computeIfAbsent(entry.getPageId(), id -> new PageBuilder(site)).add(lemmas.size() - 1, rank);
+    }
+
+    /**
+     * Кодирует список страниц текущей леммы: отдельная запись для каждого сайта, страницы внутри сайта
+     * идут по возрастанию id, так как записи отсортированы по странице
+     */
+    private void flushLemma(OutputStream postings) throws IOException {
+        if (entryCount == 0) {
+            return;
+        }
+        List<Integer> lemmaSites = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            if (!lemmaSites.contains(entrySites[i])) {
+                lemmaSites.add(entrySites[i]);
+            }
+        }
+        ByteArrayOutputStream lemma = new ByteArrayOutputStream();
+        PageTextLayout.writeVarint(lemma, lemmaSites.size());
+        for (int site : lemmaSites) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            int size = 0;
+            long previous = 0;
+            for (int i = 0; i < entryCount; i++) {
+                if (entrySites[i] == site) {
+                    writeVarlong(payload, entryPages[i] - previous);
+                    previous = entryPages[i];
+                    size++;
+                }
+            }
+            for (int i = 0; i < entryCount; i++) {
+                if (entrySites[i] == site) {
+                    PageTextLayout.writeVarint(payload, entryRanks[i]);
+                }
+            }
+            PageTextLayout.writeVarint(lemma, site);
+            PageTextLayout.writeVarint(lemma, size);
+            PageTextLayout.writeVarint(lemma, payload.size());
+            payload.writeTo(lemma);
+            sites.get(site).lemmas++;
+            sites.get(site).rows += size;
+        }
+        lemma.writeTo(postings);
+        written += lemma.size();
+        entryCount = 0;
+    }
+
+    private void writeFile(Path target, long generation, Path postingsFile) throws IOException {
+        int lemmaCount = lemmas.size();
+        Integer[] order = new Integer[lemmaCount];
+        for (int i = 0; i < lemmaCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(lemmas.get(a), lemmas.get(b)));
+        int[] ordinals = new int[lemmaCount];
+        for (int i = 0; i < lemmaCount; i++) {
+            ordinals[order[i]] = i;
+        }
+
+        int blocks = (lemmaCount + IndexSegment.BLOCK_SIZE - 1) / IndexSegment.BLOCK_SIZE;
+        int[] blockOffsets = new int[blocks];
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        byte[] previous = null;
+        for (int i = 0; i < lemmaCount; i++) {
+            byte[] term = lemmas.get(order[i]);
+            if (i % IndexSegment.BLOCK_SIZE == 0) {
+                blockOffsets[i / IndexSegment.BLOCK_SIZE] = dictionary.size();
+                PageTextLayout.writeVarint(dictionary, term.length);
+                dictionary.write(term, 0, term.length);
+            } else {
+                int shared = Arrays.mismatch(previous, term);
+                if (shared < 0) {
+                    shared = term.length;
+                }
+                PageTextLayout.writeVarint(dictionary, shared);
+                PageTextLayout.writeVarint(dictionary, term.length - shared);
+                dictionary.write(term, shared, term.length - shared);
+            }
+            previous = term;
+        }
+
+        long[] pageIds = pages.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        long[] pageLemmaOffsets = new long[pageIds.length];
+        ByteArrayOutputStream pageLemmas = new ByteArrayOutputStream();
+        for (int p = 0; p < pageIds.length; p++) {
+            PageBuilder page = pages.get(pageIds[p]);
+            int[] pageOrdinals = new int[page.size];
+            for (int i = 0; i < page.size; i++) {
+                pageOrdinals[i] = ordinals[page.lemmas[i]];
+            }
+            Arrays.sort(pageOrdinals);
+            pageLemmaOffsets[p] = pageLemmas.size();
+            PageTextLayout.writeVarint(pageLemmas, pageOrdinals.length);
+            int last = 0;
+            for (int ordinal : pageOrdinals) {
+                PageTextLayout.writeVarint(pageLemmas, ordinal - last);
+                last = ordinal;
+            }
+            SiteStats site = sites.get(page.site);
+            site.pages++;
+            site.totalLength += page.length;
+        }
+
+        long sitesOffset = IndexSegment.HEADER_SIZE;
+        long dictionaryIndexOffset = sitesOffset + (long) sites.size() * IndexSegment.SITE_RECORD;
+        long dictionaryOffset = dictionaryIndexOffset + blocks * 4L;
+        long postingOffsetsOffset = dictionaryOffset + dictionary.size();
+        long pagesOffset = postingOffsetsOffset + lemmaCount * 8L;
+        long pageLemmaOffsetsOffset = pagesOffset + (long) pageIds.length * IndexSegment.PAGE_RECORD;
+        long pageLemmasOffset = pageLemmaOffsetsOffset + pageIds.length * 8L;
+        long postingsOffset = pageLemmasOffset + pageLemmas.size();
+        long end = postingsOffset + Files.size(postingsFile);
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Index segment would exceed 2 GB: " + end + " bytes");
+        }
+
+        try (FileOutputStream file = new FileOutputStream(target.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(IndexSegment.MAGIC);
+            out.writeInt(IndexSegment.VERSION);
+            out.writeLong(generation);
+            out.writeInt(sites.size());
+            out.writeInt(lemmaCount);
+            out.writeInt(pageIds.length);
+            out.writeInt(IndexSegment.BLOCK_SIZE);
+            for (long offset : new long[]{sitesOffset, dictionaryIndexOffset, dictionaryOffset, postingOffsetsOffset,
+                    pagesOffset, pageLemmaOffsetsOffset, pageLemmasOffset, postingsOffset, end}) {
+                out.writeLong(offset);
+            }
+            out.write(new byte[IndexSegment.HEADER_SIZE - out.size()]);
+            for (SiteStats site : sites) {
+                out.writeLong(site.siteId);
+                out.writeInt(site.pages);
+                out.writeLong(site.totalLength);
+                out.writeInt(site.lemmas);
+                out.writeLong(site.rows);
+            }
+            for (int offset : blockOffsets) {
+                out.writeInt(offset);
+            }
+            dictionary.writeTo(out);
+            for (int i = 0; i < lemmaCount; i++) {
+                out.writeLong(postingOffsets[order[i]]);
+            }
+            for (long pageId : pageIds) {
+                PageBuilder page = pages.get(pageId);
+                out.writeLong(pageId);
+                out.writeInt(page.site);
+                out.writeLong(page.length);
+            }
+            for (long offset : pageLemmaOffsets) {
+                out.writeLong(offset);
+            }
+            pageLemmas.writeTo(out);
+            Files.copy(postingsFile, out);
+            out.flush();
+            file.getChannel().force(true);
+        }
+    }
+
+    private static void writeVarlong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static final class SiteStats {
+        private final long siteId;
+        private int pages;
+        private long totalLength;
+        private int lemmas;
+        private long rows;
+
+        SiteStats(long siteId) {
+            this.siteId = siteId;
+        }
+    }
+
+    /**
+     * Сайт, длина и временные номера лемм страницы
+     */
+    private static final class PageBuilder {
+        private final int site;
+        private long length;
+        private int[] lemmas = new int[16];
+        private int size;
+
+        PageBuilder(int site) {
+            this.site = site;
+        }
+
+        void add(int lemma, int rank) {
+            if (size == lemmas.length) {
+                lemmas = Arrays.copyOf(lemmas, size * 2);
+            }
+            lemmas[size++] = lemma;
+            length += rank;
+        }
+    }
+}
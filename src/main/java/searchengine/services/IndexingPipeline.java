@@ -0,0 +1,192 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.nodes.Document;
+import org.springframework.stereotype.Component;
+import searchengine.config.PipelineSettings;
+import searchengine.dto.statistics.StageStatistics;
+import searchengine.model.PageModel;
+import searchengine.repository.PageRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Конвейер индексации страниц: загрузка, разбор, лемматизация, запись.
+ * <p>
+ * Загрузку и разбор выполняют потоки обхода {@link CrawlScheduler}, лемматизацию -
+ * фиксированный пул потоков по количеству ядер, запись - {@link LemmaIndexWriter}.
+ * Этапы связаны ограниченными очередями: если лемматизация не успевает, потоки обхода
+ * ждут места в очереди, а если не успевает запись - ждут потоки лемматизации.
+ * Для каждого этапа ведутся счетчики {@link StageMetrics}, они же публикуются в Micrometer.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndexingPipeline {
+
+    private final LemmaCache lemmaCache;
+    private final PageRepository pageRepository;
+    private final PageContentStore pageContentStore;
+    private final LemmaIndexWriter lemmaIndexWriter;
+    private final SearchResultCache searchResultCache;
+    private final PipelineSettings settings;
+    private final MeterRegistry meterRegistry;
+
+    private final StageMetrics fetchMetrics = new StageMetrics("fetch");
+    private final StageMetrics parseMetrics = new StageMetrics("parse");
+    private final StageMetrics lemmatizeMetrics = new StageMetrics("lemmatize");
+
+    private BlockingQueue<ParsedPage> lemmatizeQueue;
+    private final List<Thread> lemmatizers = new ArrayList<>();
+    private volatile boolean running;
+    /**
+     * Страницы, переданные на лемматизацию, но еще не переданные на запись
+     */
+    private final PendingPages pending = new PendingPages();
+
+    @PostConstruct
+    public void start() {
+        lemmatizeQueue = new ArrayBlockingQueue<>(settings.getLemmatizeQueueCapacity());
+        fetchMetrics.bindTo(meterRegistry);
+        parseMetrics.bindTo(meterRegistry);
+        lemmatizeMetrics.bindTo(meterRegistry);
+        Gauge.builder("searchengine.pipeline.queue", lemmatizeQueue, Collection::size)
+                .description("Страницы, ожидающие этапа конвейера")
+                .tag("stage", "lemmatize")
+                .register(meterRegistry);
+        int threads = settings.getLemmatizerThreads() > 0
+                ? settings.getLemmatizerThreads()
+                : Runtime.getRuntime().availableProcessors();
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::lemmatizeLoop, "lemmatizer-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            lemmatizers.add(thread);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : lemmatizers) {
+            thread.interrupt();
+        }
+        for (Thread thread : lemmatizers) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    public StageMetrics fetchMetrics() {
+        return fetchMetrics;
+    }
+
+    public StageMetrics parseMetrics() {
+        return parseMetrics;
+    }
+
+    /**
+     * Передает сохраненную страницу на лемматизацию. Если очередь заполнена,
+     * вызывающий поток ждет освобождения места.
+     *
+     * @param page     Сохраненная страница
+     * @param document Разобранное содержимое страницы
+     */
+    public void submit(PageModel page, Document document) {
+        submit(page.getId(), page.getSite().getId(), document, null);
+    }
+
+    /**
+     * @param pageId    Идентификатор сохраненной страницы
+     * @param siteId    Идентификатор сайта страницы
+     * @param document  Разобранное содержимое страницы
+     * @param onFailure Вызывается, если страницу не удалось лемматизировать или записать, или {@code null}
+     * @see #submit(PageModel, Document)
+     */
+    public void submit(long pageId, long siteId, Document document, Runnable onFailure) {
+        pending.add(siteId);
+        try {
+            lemmatizeQueue.put(new ParsedPage(pageId, siteId, document, onFailure));
+        } catch (InterruptedException e) {
+            pending.done(siteId);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ожидает, пока все переданные страницы сайта не будут лемматизированы и записаны.
+     * Страницы других сайтов, которые обходятся одновременно, не ожидаются.
+     *
+     * @param siteId Сайт
+     * @throws InterruptedException если поток был прерван во время ожидания
+     */
+    public void awaitFlushed(long siteId) throws InterruptedException {
+        pending.await(siteId, 100);
+        lemmaIndexWriter.awaitFlushed(siteId);
+    }
+
+    /**
+     * Ожидает лемматизации и записи страниц всех сайтов
+     *
+     * @throws InterruptedException если поток был прерван во время ожидания
+     * @see #awaitFlushed(long)
+     */
+    public void awaitFlushed() throws InterruptedException {
+        pending.awaitAll(100);
+        lemmaIndexWriter.awaitFlushed();
+    }
+
+    /**
+     * @return {@code List<StageStatistics>} Статистика этапов в порядке прохождения конвейера
+     */
+    public List<StageStatistics> getStatistics() {
+        return List.of(
+                fetchMetrics.getStatistics(0),
+                parseMetrics.getStatistics(0),
+                lemmatizeMetrics.getStatistics(lemmatizeQueue.size()),
+                lemmaIndexWriter.getStageStatistics());
+    }
+
+    private void lemmatizeLoop() {
+        MorfologyService morfologyService = new MorfologyService(lemmaCache, pageRepository, pageContentStore,
+                lemmaIndexWriter, searchResultCache, new PageModel());
+        while (running || !lemmatizeQueue.isEmpty()) {
+            ParsedPage page;
+            try {
+                page = lemmatizeQueue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                page = lemmatizeQueue.poll();
+            }
+            if (page == null) {
+                continue;
+            }
+            try {
+                long start = System.nanoTime();
+                PageLemmas lemmas = morfologyService.analyzePage(page.pageId(), page.siteId(), page.document());
+                lemmatizeMetrics.record(1, System.nanoTime() - start);
+                lemmaIndexWriter.submit(lemmas, page.onFailure());
+            } catch (Exception e) {
+                lemmatizeMetrics.recordFailure();
+                log.error("Failed to lemmatize page {} of site {}", page.pageId(), page.siteId(), e);
+                if (page.onFailure() != null) {
+                    page.onFailure().run();
+                }
+            } finally {
+                pending.done(page.siteId());
+            }
+        }
+    }
+
+    private record ParsedPage(long pageId, long siteId, Document document, Runnable onFailure) {
+    }
+}
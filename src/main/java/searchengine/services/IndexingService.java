@@ -1,6 +1,7 @@
 package searchengine.services;
 
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import searchengine.dto.statistics.ShortInfo;
 import searchengine.model.SiteModel;
 
@@ -32,14 +33,14 @@ public interface IndexingService {
     ShortInfo stopIndexing();
 
     /**
-     * Останавливает индексацию лемм
+     * Останавливает переиндексацию лемм сайтов, сохраненный прогресс удаляется
      *
      * @return {@link ShortInfo} Короткий формат ответа
      */
     ShortInfo stopIndexingLemmas();
 
     /**
-     * Запуск индексации лемм для определенной страницы
+     * Запускает в фоне переиндексацию лемм всех страниц сайта, см. {@link RelemmatizationJobs}
      *
      * @param targetSite Сайт, на котором требуется проиндексировать леммы
      * @return {@link ShortInfo} Короткий формат ответа
@@ -57,4 +58,29 @@ public interface IndexingService {
      */
     ResponseEntity<?> findingOnPagesSmth(String query, String site, Integer offset,
                                          Integer limit);
+
+    /**
+     * Осуществляет поиск страниц с постраничной выдачей по курсору
+     *
+     * @param query  Что нужно найти
+     * @param site   Сайт, где нужно найти
+     * @param offset Сдвиг от начала списка результатов, не используется вместе с курсором
+     * @param limit  Количество результатов, которое необходимо вывести
+     * @param cursor Курсор из предыдущего ответа, {@code null} для первой страницы выдачи
+     * @return {@link ResponseEntity}
+     */
+    ResponseEntity<?> findingOnPagesSmth(String query, String site, Integer offset,
+                                         Integer limit, String cursor);
+
+    /**
+     * Осуществляет поиск и передает результаты потоком NDJSON: первая строка - количество
+     * найденных страниц и курсор следующей страницы выдачи, далее по строке на каждую страницу
+     *
+     * @param query  Что нужно найти
+     * @param site   Сайт, где нужно найти
+     * @param limit  Количество результатов, 0 - все результаты
+     * @param cursor Курсор из предыдущего ответа или {@code null}
+     * @return {@link ResponseEntity}
+     */
+    ResponseEntity<StreamingResponseBody> streamSearch(String query, String site, Integer limit, String cursor);
 }
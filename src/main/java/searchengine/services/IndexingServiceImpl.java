@@ -1,39 +1,36 @@
 package searchengine.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.springframework.data.domain.Example;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import searchengine.config.CrawlerSettings;
+import searchengine.config.SearchSettings;
 import searchengine.config.Site;
 import searchengine.config.SitesList;
 import searchengine.dto.statistics.PageInfoAfterSearching;
 import searchengine.dto.statistics.ResponseForSearching;
 import searchengine.dto.statistics.ShortInfo;
 import searchengine.model.*;
-import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
 
-import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -44,25 +41,41 @@ import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
 public class IndexingServiceImpl implements IndexingService {
-    private final LuceneMorphology luceneMorphEn;
-    private final LuceneMorphology luceneMorphRu;
-    private final IndexRepository indexRepository;
-    private final LemmaRepository lemmaRepository;
+    private static final int SNIPPET_LENGTH = 200;
+    private static final int STREAM_CHUNK = 50;
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final LemmaCache lemmaCache;
     private final PageRepository pageRepository;
     private final SiteRepository siteRepository;
     private final SitesList sites;
+    private final InvertedIndex invertedIndex;
+    private final LemmaIndexWriter lemmaIndexWriter;
+    private final PageFetcher pageFetcher;
+    private final CrawlScheduler crawlScheduler;
+    private final IndexingPipeline indexingPipeline;
+    private final PageContentStore pageContentStore;
+    private final PageTextStore pageTextStore;
+    private final PositionIndex positionIndex;
+    private final SearchResultCache searchResultCache;
+    private final SiteStatisticsCounters statisticsCounters;
+    private final ObjectMapper objectMapper;
+    private final CrawlerSettings crawlerSettings;
+    private final List<RelevanceScorer> relevanceScorers;
+    private final SearchSettings searchSettings;
+    private final SearchMetrics searchMetrics;
+    private final RelemmatizationJobs relemmatizationJobs;
 
-    private final ForkJoinPool forkJoinPool = new ForkJoinPool();
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-
-    @Getter
-    private static final AtomicBoolean stopFlag = new AtomicBoolean(false);
     @Getter
     private static final AtomicBoolean stopCheckLemmasOnSite = new AtomicBoolean(false);
 
     @Override
     public ShortInfo indexingPage(String reindexPage) {
         reindexPage = URLDecoder.decode(reindexPage, StandardCharsets.UTF_8).replace("url=", "");
+        String normalizedPage = UrlNormalizer.normalize(reindexPage);
+        if (normalizedPage != null) {
+            reindexPage = normalizedPage;
+        }
         Pattern pattern = Pattern.compile("https?://(?:www\\.)?[^/]+");
         Matcher matcher = pattern.matcher(reindexPage);
 
@@ -72,46 +85,35 @@ public class IndexingServiceImpl implements IndexingService {
                     .filter(site -> site.getUrl().contains(normalizeUrl(mainSiteName)))
                     .findFirst();
             if (potentionalSite.isPresent()) {
-                if (pageRepository.findByPath(reindexPage) != null) {
-                    PageModel p = pageRepository.findByPath(reindexPage);
+                PageModel stored = pageRepository.findByPath(reindexPage);
+                if (stored != null) {
+                    PageModel p = stored;
+                    Document document;
                     try {
-                        Connection.Response response = Jsoup.connect(p.getPath())
-                                .userAgent("Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) Gecko/20070725 Firefox/2.0.0.6")
-                                .referrer("http://www.google.com")
-                                .execute();
-                        p.setCode(response.statusCode());
-                        p.setContent(response.parse().html());
+                        document = loadPage(p);
                     } catch (IOException e) {
                         return new ShortInfo(false, "Страница не доступна");
                     }
-                    pageRepository.save(p);
-                    MorfologyService morfologyService = new MorfologyService(luceneMorphEn, luceneMorphRu, indexRepository, lemmaRepository, pageRepository, new PageModel());
-                    morfologyService.indexPage(p);
+                    p = pageRepository.save(p);
+                    pageContentStore.save(p.getId(), p.getSite().getId(), document.html());
+                    MorfologyService morfologyService = new MorfologyService(lemmaCache, pageRepository, pageContentStore, lemmaIndexWriter, searchResultCache, new PageModel());
+                    morfologyService.indexPage(p, document);
                     return new ShortInfo(true, "Страница проиндексирована");
                 } else {
                     PageModel p = new PageModel();
                     p.setSite(potentionalSite.get());
                     p.setPath(reindexPage);
+                    Document document;
                     try {
-                        Connection.Response response = Jsoup.connect(p.getPath())
-                                .userAgent("Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) Gecko/20070725 Firefox/2.0.0.6")
-                                .referrer("http://www.google.com")
-                                .execute();
-                        p.setCode(response.statusCode());
-                        p.setContent(response.parse().html());
-
-                        SiteModel pSite = potentionalSite.get();
-                        List<PageModel> pageModels = pSite.getPage();
-                        pageModels.add(p);
-                        pSite.setPage(pageModels);
-                        siteRepository.save(pSite);
-
+                        document = loadPage(p);
                     } catch (IOException e) {
                         return new ShortInfo(false, "Страница не доступна");
                     }
-                    pageRepository.save(p);
-                    MorfologyService morfologyService = new MorfologyService(luceneMorphEn, luceneMorphRu, indexRepository, lemmaRepository, pageRepository, new PageModel());
-                    morfologyService.indexPage(p);
+                    p = pageRepository.save(p);
+                    statisticsCounters.pageAdded(p.getSite().getId());
+                    pageContentStore.save(p.getId(), p.getSite().getId(), document.html());
+                    MorfologyService morfologyService = new MorfologyService(lemmaCache, pageRepository, pageContentStore, lemmaIndexWriter, searchResultCache, new PageModel());
+                    morfologyService.indexPage(p, document);
                     return new ShortInfo(true, "Страница проиндексирована");
                 }
             }
@@ -124,38 +126,60 @@ public class IndexingServiceImpl implements IndexingService {
     @Transactional
     public ShortInfo startIndexing() {
 
-        if (forkJoinPool.getActiveThreadCount() > 0) {
+        if (crawlScheduler.isRunning()) {
             return new ShortInfo(false, "Индексация уже запущена");
         }
 
-        stopFlag.set(false);
-
         for (Site site : sites.getSites()) {
             SiteModel dbSite = siteRepository.findByUrl(site.getUrl());
             if (dbSite == null) {
-                SiteModel siteModel = new SiteModel();
-                siteModel.setUrl(site.getUrl());
-                siteModel.setName(site.getName());
-                siteModel.setStatus(SiteStatus.INDEXING);
-                siteModel.setLastError("");
-                siteModel.setStatusTime(Instant.now());
-                siteRepository.save(siteModel);
-                forkJoinPool.execute(new PagesFinder(siteModel.getUrl(), pageRepository,
-                        siteRepository, siteModel, true,
-                        luceneMorphEn, luceneMorphRu, indexRepository, lemmaRepository));
-            } else {
-                dbSite.setStatus(SiteStatus.INDEXING);
-                dbSite.setLastError("");
-                dbSite.setStatusTime(Instant.now());
-                siteRepository.save(dbSite);
-                forkJoinPool.execute(new PagesFinder(dbSite.getUrl(), pageRepository,
-                        siteRepository, dbSite, true,
-                        luceneMorphEn, luceneMorphRu, indexRepository, lemmaRepository));
+                dbSite = new SiteModel();
+                dbSite.setUrl(site.getUrl());
+                dbSite.setName(site.getName());
             }
+            dbSite.setStatus(SiteStatus.INDEXING);
+            dbSite.setLastError("");
+            dbSite.setStatusTime(Instant.now());
+            siteRepository.save(dbSite);
+            crawlScheduler.crawl(dbSite.getUrl(),
+                    new PagesFinder(pageRepository, siteRepository, dbSite,
+                            indexingPipeline, pageContentStore, pageFetcher, searchResultCache, statisticsCounters,
+                            crawlerSettings.isIncrementalRecrawl()),
+                    site.getMaxDepth() != null ? site.getMaxDepth() : crawlerSettings.getMaxDepth(),
+                    site.getMaxPages() != null ? site.getMaxPages() : crawlerSettings.getMaxPages());
         }
         return new ShortInfo(true, "indexing started");
     }
 
+    /**
+     * Загружает страницу и записывает в нее код ответа, заголовок и длину текста
+     *
+     * @param p Страница с заполненным путем
+     * @return {@link Document} Разобранное содержимое страницы
+     * @throws IOException если страница недоступна
+     */
+    private Document loadPage(PageModel p) throws IOException {
+        FetchResult response;
+        try {
+            response = pageFetcher.fetch(p.getPath()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (!response.isSuccessful() || !response.isHtml()) {
+            throw new IOException("HTTP " + response.statusCode() + " " + response.url());
+        }
+        Document document = response.parse();
+        p.setCode(response.statusCode());
+        PageContentStore.fillMetadata(p, document);
+        p.setEtag(response.etag());
+        p.setLastModified(response.lastModified());
+        p.setContentHash(response.contentHash());
+        return document;
+    }
+
     /**
      * Регулярное выражение для извлечения только домена (например, example.com)
      * @param url
@@ -173,174 +197,306 @@ public class IndexingServiceImpl implements IndexingService {
 
     @Override
     public ShortInfo stopIndexing() {
-        stopFlag.set(true);
+        crawlScheduler.stop();
         return new ShortInfo(true, "stop indexing by user");
     }
 
     @Override
     public ShortInfo stopIndexingLemmas() {
         stopCheckLemmasOnSite.set(true);
+        relemmatizationJobs.cancelAll();
         return new ShortInfo(true, "stop indexing lemmas on site by user");
     }
 
     @Override
     public ShortInfo pagesForSiteIndexingLemmas(SiteModel targetSite) {
-        stopFlag.set(false);
         stopCheckLemmasOnSite.set(false);
-        if (siteRepository.findByUrl(targetSite.getUrl()).getPage().isEmpty()) {
+        SiteModel site = siteRepository.findByUrl(targetSite.getUrl());
+        if (site == null || !pageRepository.existsBySiteId(site.getId())) {
             return new ShortInfo(false, "У указанного сайта нет проиндексированных страниц");
         }
-        stopCheckLemmasOnSite.set(false);
-        for (PageModel page : siteRepository.findByUrl(targetSite.getUrl()).getPage()) {
-            Future<ShortInfo> future = executorService.submit(new MorfologyService(luceneMorphEn, luceneMorphRu, indexRepository,
-                    lemmaRepository, pageRepository, page));
-            try {
-                System.out.println("Future output: ");
-                System.out.println(future.isDone());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+        if (!relemmatizationJobs.start(site)) {
+            return new ShortInfo(false, "Индексация лемм сайта уже запущена");
         }
         return new ShortInfo(true, "started lemma indexing on " + targetSite.getUrl());
     }
 
     @Override
     public ResponseEntity<ResponseForSearching> findingOnPagesSmth(String query, String site, Integer offset, Integer limit) {
-        List<PageModel> pagesWhereToFind;
+        return findingOnPagesSmth(query, site, offset, limit, null);
+    }
+
+    @Override
+    public ResponseEntity<ResponseForSearching> findingOnPagesSmth(String query, String site, Integer offset,
+                                                                   Integer limit, String cursor) {
+        // сниппеты обычного ответа строятся в памяти целиком, поэтому его размер ограничен
+        int maxResults = searchSettings.getMaxResults();
+        int capped = limit == null || limit <= 0 || limit > maxResults ? maxResults : limit;
+        return searchMetrics.total(() -> {
+            SearchPlan plan = planSearch(query, site, offset, capped, cursor);
+            if (plan.status() != HttpStatus.OK || plan.ranking().totalHits() == 0) {
+                return new ResponseEntity<>(new ResponseForSearching(false, 0L, List.of()), plan.status());
+            }
+            ResponseForSearching response = new ResponseForSearching();
+            response.setResult(true);
+            response.setCount(plan.ranking().totalHits());
+            response.setData(pageInfos(plan, plan.fromIndex(), plan.toIndex()));
+            response.setNextCursor(plan.nextCursor());
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        });
+    }
+
+    @Override
+    public ResponseEntity<StreamingResponseBody> streamSearch(String query, String site, Integer limit, String cursor) {
+        // время запроса включает запись выдачи, поэтому учитывается после записи последней строки
+        long start = System.nanoTime();
+        SearchPlan plan = planSearch(query, site, cursor == null ? 0 : null, limit, cursor);
+        boolean found = plan.status() == HttpStatus.OK && plan.ranking().totalHits() > 0;
+        ResponseForSearching header = found
+                ? new ResponseForSearching(true, plan.ranking().totalHits(), List.of(), plan.nextCursor())
+                : new ResponseForSearching(false, 0L, List.of());
+        StreamingResponseBody body = out -> {
+            try {
+                writeLine(out, header);
+                for (int from = plan.fromIndex(); found && from < plan.toIndex(); from += STREAM_CHUNK) {
+                    for (PageInfoAfterSearching pageInfo
+                            : pageInfos(plan, from, Math.min(plan.toIndex(), from + STREAM_CHUNK))) {
+                        writeLine(out, pageInfo);
+                    }
+                    out.flush();
+                }
+            } finally {
+                searchMetrics.total(System.nanoTime() - start);
+            }
+        };
+        return ResponseEntity.status(plan.status())
+                .contentType(NDJSON)
+                .body(body);
+    }
+
+    private void writeLine(OutputStream out, Object value) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(value));
+        out.write('\n');
+    }
+
+    /**
+     * Разбирает запрос и определяет, какие позиции ранжированной выдачи нужно отдать.
+     * С курсором отдаются {@code limit} страниц после него (все оставшиеся, если {@code limit} не задан),
+     * иначе - по {@code offset} и {@code limit}.
+     */
+    private SearchPlan planSearch(String query, String site, Integer offset, Integer limit, String cursor) {
+        SiteModel siteModel = null;
         HashMap<String, Long> lemmasFromQuery;
-        final int frequencyLimit = 10000;
         if (site != null && !site.isEmpty()) {
-            SiteModel siteModel = siteRepository.findByUrl(site);
+            siteModel = siteRepository.findByUrl(site);
             if (siteModel == null) {
-                return new ResponseEntity<>(new ResponseForSearching(false, 0L, List.of()), HttpStatus.NOT_FOUND);
+                return SearchPlan.failed(HttpStatus.NOT_FOUND);
+            }
+        }
+        SearchCursor after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                after = SearchCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return SearchPlan.failed(HttpStatus.BAD_REQUEST);
             }
-            pagesWhereToFind = siteModel.getPage();
-        } else {
-            pagesWhereToFind = pageRepository.findAll();
         }
 
-        MorfologyService morfologyService = new MorfologyService(luceneMorphEn, luceneMorphRu, indexRepository, lemmaRepository, pageRepository, new PageModel());
-        lemmasFromQuery = morfologyService.morphologyForms(query);
-        List<Lemma> qLemmas = lemmasFromQuery.keySet().stream()
-                .map(lemmaRepository::findByLemma)
-                .filter(lemma -> lemma != null && lemma.getFrequency() <= frequencyLimit)
-                .sorted(Comparator.comparingLong(Lemma::getFrequency))
-                .toList();
+        Long siteId = siteModel == null ? null : siteModel.getId();
+        long lemmasStart = System.nanoTime();
+        SearchQuery searchQuery = SearchQuery.parse(query, lemmaCache);
+        lemmasFromQuery = searchQuery.lemmas();
+        List<String> qLemmas = queryLemmas(lemmasFromQuery.keySet(), siteId);
+        searchMetrics.lemmas(System.nanoTime() - lemmasStart);
 
         if (qLemmas.isEmpty()) {
-            return new ResponseEntity<>(new ResponseForSearching(false, 0L, List.of()), HttpStatus.NOT_FOUND);
+            return SearchPlan.failed(HttpStatus.NOT_FOUND);
         }
 
-        Set<PageModel> pagesWhereLemmasAre = new HashSet<>(pagesWhereToFind);
-
-        for (Lemma lemma : qLemmas) {
-            Set<PageModel> lastNotEmptyList = new HashSet<>(pagesWhereLemmasAre);
-            List<PageModel> pagesForLemma = lemma.getIndexList().stream()
-                    .map(Index::getPage)
-                    .filter(pagesWhereLemmasAre::contains)
-                    .collect(Collectors.toList());
-            pagesWhereLemmasAre.retainAll(pagesForLemma);
-            if (pagesWhereLemmasAre.isEmpty()) {
-                pagesWhereLemmasAre = lastNotEmptyList;
-                break;
-            }
+        boolean limited = limit != null && limit > 0;
+        boolean paged = after == null && limited && offset != null && offset >= 0;
+        long requested = paged ? (long) offset + limit : Long.MAX_VALUE;
+        if (after != null) {
+            requested = limited ? Math.max(limit, searchResultCache.depth()) : Long.MAX_VALUE;
+        }
+        SearchResultCache.Key key = new SearchResultCache.Key(qLemmas.stream().sorted().toList(),
+                searchQuery.phrases(), siteModel == null ? "" : siteModel.getUrl());
+        SearchResultCache.Ranking ranking = cachedRanking(key, qLemmas, searchQuery, siteModel, requested);
+        if (after != null && limited && !ranking.isComplete()
+                && ranking.positionAfter(after) + (long) limit > ranking.pageIds().length) {
+            ranking = cachedRanking(key, qLemmas, searchQuery, siteModel, Long.MAX_VALUE);
         }
 
-        Map<PageModel, Double> absRelevance = pagesWhereLemmasAre.stream()
-                .collect(Collectors.toMap(
-                        page -> page,
-                        page -> page.getIndexList().stream()
-                                .mapToDouble(Index::getRank)
-                                .sum()
-                ));
-
-        double maxRank = absRelevance.values().stream().max(Double::compare).orElse(0.0);
-        absRelevance.replaceAll((page, rank) -> rank / maxRank);
-
-        List<PageInfoAfterSearching> pageInfoList = absRelevance.entrySet().stream()
-                .sorted(Map.Entry.<PageModel, Double>comparingByValue().reversed())
-                .map(entry -> {
-                    PageModel page = entry.getKey();
-                    PageInfoAfterSearching pageInfo = new PageInfoAfterSearching();
-                    pageInfo.setUri(page.getPath().replace(page.getSite().getUrl(), ""));
-                    pageInfo.setSite(page.getSite().getUrl());
-                    pageInfo.setRelevance(entry.getValue());
-                    pageInfo.setTitle(Jsoup.parse(page.getContent()).title());
-                    pageInfo.setSnippet(makeSnippet(page.getContent(), query));
-                    pageInfo.setSiteName(page.getSite().getName());
-                    return pageInfo;
-                })
-                .collect(Collectors.toList());
-
-        if (pageInfoList.isEmpty()) {
-            return new ResponseEntity<>(new ResponseForSearching(false, 0L, List.of()), HttpStatus.OK);
+        long[] rankedIds = ranking.pageIds();
+        int fromIndex = 0;
+        int toIndex = rankedIds.length;
+        if (after != null) {
+            fromIndex = ranking.positionAfter(after);
+            toIndex = limited ? (int) Math.min((long) fromIndex + limit, rankedIds.length) : rankedIds.length;
+        } else if (paged && offset < ranking.totalHits()) {
+            fromIndex = offset;
+            toIndex = (int) Math.min(requested, rankedIds.length);
         }
+        String nextCursor = toIndex > fromIndex && toIndex < ranking.totalHits()
+                ? ranking.cursorAt(toIndex - 1).encode()
+                : null;
+        return new SearchPlan(HttpStatus.OK, lemmasFromQuery.keySet(), ranking, fromIndex, toIndex, nextCursor);
+    }
 
-        ResponseForSearching response = new ResponseForSearching();
-        response.setResult(true);
-        response.setCount((long) pageInfoList.size());
+    /**
+     * Отбирает леммы запроса для поиска по частоте на сайте (или на всех сайтах) из счетчиков {@link InvertedIndex}.
+     * Отбрасываются отсутствующие леммы и леммы, которые встречаются на большей доле страниц, чем
+     * {@link SearchSettings#getFrequencyCutoffPercent()}, если после этого остается хотя бы одна лемма.
+     *
+     * @return {@code List<String>} Леммы по возрастанию частоты
+     */
+    private List<String> queryLemmas(Set<String> lemmas, Long siteId) {
+        double cutoff = invertedIndex.pageCount(siteId) * searchSettings.getFrequencyCutoffPercent() / 100;
+        List<String> present = lemmas.stream()
+                .filter(lemma -> invertedIndex.documentFrequency(lemma, siteId) > 0)
+                .sorted(Comparator.comparingInt(lemma -> invertedIndex.documentFrequency(lemma, siteId)))
+                .toList();
+        List<String> selective = present.stream()
+                .filter(lemma -> invertedIndex.documentFrequency(lemma, siteId) <= cutoff)
+                .toList();
+        return selective.isEmpty() ? present : selective;
+    }
 
-        if (offset != null && limit != null && offset >= 0 && limit > 0 && offset < pageInfoList.size()) {
-            int toIndex = Math.min(offset + limit, pageInfoList.size());
-            response.setData(pageInfoList.subList(offset, toIndex));
+    private SearchResultCache.Ranking cachedRanking(SearchResultCache.Key key, List<String> qLemmas,
+                                                    SearchQuery searchQuery, SiteModel siteModel, long requested) {
+        SearchResultCache.Ranking ranking = searchResultCache.get(key, requested);
+        if (ranking != null) {
+            searchMetrics.cacheHit();
         } else {
-            response.setData(pageInfoList);
+            searchMetrics.cacheMiss();
+            long generation = searchResultCache.generation();
+            ranking = rank(qLemmas, searchQuery, siteModel, requested);
+            searchResultCache.put(key, generation, ranking);
         }
-
-        return new ResponseEntity<>(response, HttpStatus.OK);
+        return ranking;
     }
 
+    /**
+     * Формирует ответ по позициям выдачи {@code [from, to)}, страницы и их текст читаются одним запросом
+     */
+    private List<PageInfoAfterSearching> pageInfos(SearchPlan plan, int from, int to) {
+        return searchMetrics.snippets(() -> loadPageInfos(plan, from, to));
+    }
 
-    public String makeSnippet(String html, String originalQuery) {
-        String[] splitedQuery = originalQuery.split("\\s+");
-        Document document = Jsoup.parse(html);
-        int snippetLength = 200;
-        Map<String, String> queryLemmas = new HashMap<>();
-        for (String queryWord : splitedQuery) {
-            if (luceneMorphRu.checkString(queryWord)) {
-                queryLemmas.put(queryWord, luceneMorphRu.getNormalForms(queryWord).get(0));
-            } else if (luceneMorphEn.checkString(queryWord)) {
-                queryLemmas.put(queryWord, luceneMorphEn.getNormalForms(queryWord).get(0));
-            } else {
-                queryLemmas.put(queryWord, queryWord);
+    private List<PageInfoAfterSearching> loadPageInfos(SearchPlan plan, int from, int to) {
+        SearchResultCache.Ranking ranking = plan.ranking();
+        List<Long> resultIds = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            resultIds.add(ranking.pageIds()[i]);
+        }
+        Map<Long, PageModel> resultPages = pageRepository.findAllById(resultIds).stream()
+                .collect(Collectors.toMap(PageModel::getId, Function.identity()));
+        Map<Long, PageTextLayout> texts = pageTextStore.loadAll(resultIds);
+
+        List<PageInfoAfterSearching> pageInfoList = new ArrayList<>(resultIds.size());
+        for (int i = from; i < to; i++) {
+            PageModel page = resultPages.get(ranking.pageIds()[i]);
+            if (page != null) {
+                double relevance = ranking.maxScore() > 0 ? ranking.scores()[i] / ranking.maxScore() : 0;
+                pageInfoList.add(toPageInfo(page, texts.get(page.getId()), relevance, plan.queryLemmas()));
             }
         }
+        return pageInfoList;
+    }
 
-        for (Element element : document.getAllElements()) {
-            String elementText = element.ownText();
-            String[] wordsInText = elementText.split("\\s+");
-            for (String wordInText : wordsInText) {
-                if (wordInText.isEmpty()) {
-                    continue;
-                }
-                String normalizedWord = wordInText.toLowerCase();
-                String lemma;
+    /**
+     * Разобранный запрос и отдаваемые позиции выдачи
+     *
+     * @param status      Статус ответа
+     * @param queryLemmas Леммы запроса для подсветки в сниппетах
+     * @param ranking     Ранжированные страницы
+     * @param fromIndex   Первая отдаваемая позиция
+     * @param toIndex     Позиция после последней отдаваемой
+     * @param nextCursor  Курсор следующей страницы выдачи или {@code null}
+     */
+    private record SearchPlan(HttpStatus status, Set<String> queryLemmas, SearchResultCache.Ranking ranking,
+                              int fromIndex, int toIndex, String nextCursor) {
+        static SearchPlan failed(HttpStatus status) {
+            return new SearchPlan(status, Set.of(), SearchResultCache.Ranking.EMPTY, 0, 0, null);
+        }
+    }
 
-                if (luceneMorphRu.checkString(normalizedWord)) {
-                    lemma = luceneMorphRu.getNormalForms(normalizedWord).get(0);
-                } else if (luceneMorphEn.checkString(normalizedWord)) {
-                    lemma = luceneMorphEn.getNormalForms(normalizedWord).get(0);
-                } else {
-                    lemma = normalizedWord;
-                }
+    /**
+     * Находит и ранжирует страницы запроса. Сохраняется не меньше {@link SearchResultCache#depth()}
+     * лучших страниц, чтобы следующие страницы выдачи отдавались из кэша.
+     *
+     * @param requested Сколько лучших страниц нужно для ответа
+     */
+    private SearchResultCache.Ranking rank(List<String> qLemmas, SearchQuery searchQuery, SiteModel siteModel,
+                                           long requested) {
+        Long siteId = siteModel == null ? null : siteModel.getId();
+        long[] pagesWhereLemmasAre = searchMetrics.intersection(() -> positionIndex.matchPhrases(
+                invertedIndex.findPages(qLemmas, siteId), searchQuery.phrases()));
+        if (pagesWhereLemmasAre.length == 0) {
+            return SearchResultCache.Ranking.EMPTY;
+        }
+        return searchMetrics.ranking(() -> score(qLemmas, pagesWhereLemmasAre, siteId, requested));
+    }
 
-                if (lemma != null && queryLemmas.containsValue(lemma)) {
-                    String highlightedText = elementText.replaceAll("(?i)\\b" + wordInText + "\\b", "<b>" + wordInText + "</b>");
+    /**
+     * Считает релевантность найденных страниц и отбирает лучшие
+     */
+    private SearchResultCache.Ranking score(List<String> qLemmas, long[] pagesWhereLemmasAre, Long siteId,
+                                            long requested) {
+        int resultSize = (int) Math.min(pagesWhereLemmasAre.length, Math.max(requested, searchResultCache.depth()));
+        double[] absRelevance = scorer().score(scoringInput(qLemmas, pagesWhereLemmasAre, siteId));
+        TopKCollector candidates = new TopKCollector(positionIndex.candidates(resultSize, qLemmas));
+        for (int i = 0; i < pagesWhereLemmasAre.length; i++) {
+            candidates.collect(pagesWhereLemmasAre[i], absRelevance[i]);
+        }
+        TopKCollector topPages = positionIndex.rerank(candidates, qLemmas, resultSize);
+        double maxRank = topPages.getMaxScore();
+        int count = Math.min(topPages.sort(), resultSize);
+
+        long[] pageIds = new long[count];
+        double[] scores = new double[count];
+        for (int i = 0; i < count; i++) {
+            pageIds[i] = topPages.pageIdAt(i);
+            scores[i] = topPages.scoreAt(i);
+        }
+        return new SearchResultCache.Ranking(pageIds, scores, candidates.getTotalHits(), maxRank);
+    }
 
-                    int wordIndex = highlightedText.toLowerCase().indexOf(wordInText.toLowerCase());
-                    int start = Math.max(0, wordIndex - snippetLength / 2);
-                    int end = Math.min(elementText.length(), wordIndex + wordInText.length() + snippetLength / 2);
+    private RelevanceScorer scorer() {
+        return relevanceScorers.stream()
+                .filter(scorer -> scorer.mode() == searchSettings.getScoring())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Unknown scoring mode " + searchSettings.getScoring()));
+    }
 
-                    return highlightedText.substring(start, end);
-                }
-            }
+    /**
+     * Собирает ранги лемм запроса на найденных страницах и статистику индекса.
+     * При поиске по одному сайту используется статистика этого сайта.
+     */
+    private ScoringInput scoringInput(List<String> lemmas, long[] pages, Long siteId) {
+        int[][] termFrequencies = new int[lemmas.size()][];
+        int[] documentFrequencies = new int[lemmas.size()];
+        for (int t = 0; t < lemmas.size(); t++) {
+            termFrequencies[t] = invertedIndex.termFrequencies(lemmas.get(t), pages, siteId);
+            documentFrequencies[t] = invertedIndex.documentFrequency(lemmas.get(t), siteId);
         }
-        return null;
+        return new ScoringInput(pages, termFrequencies, documentFrequencies, invertedIndex.pageLengths(pages),
+                invertedIndex.pageCount(siteId), invertedIndex.averagePageLength(siteId));
     }
 
-    @PreDestroy
-    public void shutdownExecutor() {
-        executorService.shutdown();
+    /**
+     * Формирует ответ по одной странице. Заголовок хранится в {@code page}, сниппет вырезается
+     * из текста, сохраненного при индексации ({@link PageTextStore}), без разбора HTML.
+     */
+    private PageInfoAfterSearching toPageInfo(PageModel page, PageTextLayout text, double relevance, Set<String> queryLemmas) {
+        PageInfoAfterSearching pageInfo = new PageInfoAfterSearching();
+        pageInfo.setUri(page.getPath().replace(page.getSite().getUrl(), ""));
+        pageInfo.setSite(page.getSite().getUrl());
+        pageInfo.setRelevance(relevance);
+        pageInfo.setTitle(page.getTitle());
+        pageInfo.setSnippet(text == null ? null : text.snippet(queryLemmas, SNIPPET_LENGTH));
+        pageInfo.setSiteName(page.getSite().getName());
+        return pageInfo;
     }
 
 }
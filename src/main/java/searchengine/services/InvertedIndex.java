@@ -0,0 +1,620 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.repository.IndexEntry;
+import searchengine.repository.IndexRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Инвертированный индекс в памяти: для каждой леммы хранится отсортированный
+ * по возрастанию список идентификаторов страниц {@code long[]} с рангом леммы на странице.
+ * <p>
+ * Списки разбиты по сайтам: у каждого сайта свои списки лемм, количество страниц и их суммарная длина.
+ * Поиск по одному сайту читает только списки этого сайта, поиск по всем сайтам пересекает списки
+ * каждого сайта и объединяет результаты.
+ * <p>
+ * Заполняется при старте приложения из актуального сегмента ({@link IndexSegmentStore}) или из таблицы
+ * {@code indexes} и поддерживается в актуальном состоянии через {@link MorfologyService#indexPage}, поэтому поиск
+ * сводится к пересечению списков и не обращается к таблице {@code page}.
+ * <p>
+ * Сегмент отображен в память и не копируется в кучу: список страниц леммы читается из сегмента при первом
+ * обращении, страницы сегмента переносятся в карты страниц только при их переиндексации или удалении.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class InvertedIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final IndexRepository indexRepository;
+    private final IndexSegmentStore indexSegmentStore;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Сайт -> списки страниц лемм этого сайта
+     */
+    private final ConcurrentHashMap<Long, Shard> shards = new ConcurrentHashMap<>();
+    /**
+     * Страница -> сайт страницы
+     */
+    private final ConcurrentHashMap<Long, Long> pageSites = new ConcurrentHashMap<>();
+    /**
+     * Страница -> леммы страницы, нужны для удаления старых записей при переиндексации
+     */
+    private final ConcurrentHashMap<Long, String[]> pageLemmas = new ConcurrentHashMap<>();
+    /**
+     * Страница -> сумма рангов всех лемм страницы
+     */
+    private final ConcurrentHashMap<Long, Long> pageLengths = new ConcurrentHashMap<>();
+    /**
+     * Сумма длин всех страниц индекса, нужна для средней длины страницы
+     */
+    private final AtomicLong totalLength = new AtomicLong();
+    /**
+     * Блокировки для обновления страниц, одна страница всегда попадает на одну и ту же блокировку
+     */
+    private final Object[] pageLocks = Stream.generate(Object::new).limit(64).toArray();
+    /**
+     * Сегмент, из которого загружен индекс, или {@code null}
+     */
+    private volatile IndexSegment segment;
+    /**
+     * Страницы подключенного сегмента, перенесенные в карты страниц, данные сегмента для них устарели.
+     * Новых страниц, которых нет в сегменте, здесь нет, при подключении другого сегмента множество очищается
+     */
+    private final Set<Long> detachedPages = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Подключает актуальный сегмент индекса, а если его нет, загружает индекс из БД и запускает сборку сегмента.
+     * Записи БД читаются потоком, отсортированными по лемме и странице,
+     * поэтому списки каждого сайта собираются простым добавлением в конец.
+     * После загрузки публикуется {@link IndexLoadedEvent}.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void loadFromDatabase() {
+        IndexSegment stored = indexSegmentStore.openCurrent();
+        if (stored != null) {
+            attach(stored);
+            log.info("Index loaded from segment {}", stored.path());
+            eventPublisher.publishEvent(new IndexLoadedEvent());
+            return;
+        }
+        Map<Long, List<String>> lemmasByPage = new HashMap<>();
+        try (Stream<IndexEntry> entries = indexRepository.streamAllEntries()) {
+            Iterator<IndexEntry> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                IndexEntry entry = iterator.next();
+                Shard shard = shards.computeIfAbsent(entry.getSiteId(), id -> new Shard());
+                shard.postings.computeIfAbsent(entry.getLemma(), key -> new PostingList())
+                        .put(entry.getPageId(), entry.getRank().intValue());
+                lemmasByPage.computeIfAbsent(entry.getPageId(), id -> new ArrayList<>()).add(entry.getLemma());
+                pageLengths.merge(entry.getPageId(), entry.getRank(), Long::sum);
+                pageSites.putIfAbsent(entry.getPageId(), entry.getSiteId());
+            }
+        }
+        lemmasByPage.forEach((pageId, lemmas) -> pageLemmas.put(pageId, lemmas.toArray(String[]::new)));
+        shards.values().forEach(Shard::recount);
+        pageLengths.forEach((pageId, length) -> {
+            Shard shard = shards.get(pageSites.get(pageId));
+            shard.pageCount.incrementAndGet();
+            shard.totalLength.addAndGet(length);
+        });
+        totalLength.set(pageLengths.values().stream().mapToLong(Long::longValue).sum());
+        indexSegmentStore.rebuildAsync();
+        eventPublisher.publishEvent(new IndexLoadedEvent());
+    }
+
+    /**
+     * Счетчики сайтов берутся из таблицы сайтов сегмента, списки и страницы читаются по запросу
+     */
+    private void attach(IndexSegment stored) {
+        for (int site = 0; site < stored.siteCount(); site++) {
+            Shard shard = new Shard(stored, site);
+            shard.pageCount.set(stored.sitePageCount(site));
+            shard.totalLength.set(stored.siteTotalLength(site));
+            shard.lemmaCount.set(stored.siteLemmaCount(site));
+            shard.indexRows.set(stored.siteIndexRows(site));
+            shards.put(stored.siteId(site), shard);
+            totalLength.addAndGet(stored.siteTotalLength(site));
+        }
+        detachedPages.clear();
+        segment = stored;
+    }
+
+    /**
+     * Заменяет все записи страницы в индексе на переданные леммы
+     *
+     * @param pageId Идентификатор страницы
+     * @param siteId Идентификатор сайта страницы
+     * @param lemmas Леммы страницы и количество их повторений
+     */
+    public void indexPage(long pageId, long siteId, Map<String, Long> lemmas) {
+        synchronized (lockFor(pageId)) {
+            removePage(pageId);
+            Shard shard = shards.computeIfAbsent(siteId, id -> new Shard());
+            long length = 0;
+            String[] keys = new String[lemmas.size()];
+            int i = 0;
+            for (Map.Entry<String, Long> entry : lemmas.entrySet()) {
+                PostingList list = shard.getOrCreate(entry.getKey());
+                shard.added(list.put(pageId, entry.getValue().intValue()));
+                keys[i++] = entry.getKey();
+                length += entry.getValue();
+            }
+            pageLemmas.put(pageId, keys);
+            pageSites.put(pageId, siteId);
+            pageLengths.put(pageId, length);
+            totalLength.addAndGet(length);
+            shard.pageCount.incrementAndGet();
+            shard.totalLength.addAndGet(length);
+        }
+    }
+
+    /**
+     * Удаляет страницу из индекса
+     *
+     * @param pageId Идентификатор страницы
+     */
+    public void removePage(long pageId) {
+        synchronized (lockFor(pageId)) {
+            detach(pageId);
+            Long siteId = pageSites.remove(pageId);
+            String[] old = pageLemmas.remove(pageId);
+            Long oldLength = pageLengths.remove(pageId);
+            Shard shard = siteId == null ? null : shards.get(siteId);
+            if (shard == null) {
+                return;
+            }
+            if (old != null) {
+                for (String lemma : old) {
+                    PostingList list = shard.get(lemma);
+                    if (list != null) {
+                        shard.removed(list.remove(pageId));
+                    }
+                }
+            }
+            if (oldLength != null) {
+                totalLength.addAndGet(-oldLength);
+                shard.pageCount.decrementAndGet();
+                shard.totalLength.addAndGet(-oldLength);
+            }
+        }
+    }
+
+    /**
+     * Переносит страницу сегмента в карты страниц перед ее изменением. Вызывается под блокировкой страницы
+     */
+    private void detach(long pageId) {
+        IndexSegment stored = segment;
+        if (stored == null || !stored.containsPage(pageId) || !detachedPages.add(pageId)) {
+            return;
+        }
+        IndexSegment.Page page = stored.page(pageId);
+        pageSites.put(pageId, page.siteId());
+        pageLemmas.put(pageId, page.lemmas());
+        pageLengths.put(pageId, page.length());
+    }
+
+    /**
+     * Количество страниц, на которых встречается лемма
+     *
+     * @param lemma  Нормализованное слово
+     * @param siteId Сайт, которым ограничивается поиск, или {@code null} для всех сайтов
+     * @return {@code int} Длина списка страниц леммы, {@code 0} если лемма не найдена
+     */
+    public int documentFrequency(String lemma, Long siteId) {
+        int frequency = 0;
+        for (Shard shard : scope(siteId)) {
+            frequency += shard.size(lemma);
+        }
+        return frequency;
+    }
+
+    /**
+     * Сумма рангов всех лемм страницы
+     *
+     * @param pageId Идентификатор страницы
+     * @return {@code long} Сумма рангов, {@code 0} если страницы нет в индексе
+     */
+    public long pageLength(long pageId) {
+        Long length = pageLengths.get(pageId);
+        if (length != null) {
+            return length;
+        }
+        IndexSegment stored = segment;
+        return stored == null || detachedPages.contains(pageId) ? 0 : stored.pageLength(pageId);
+    }
+
+    /**
+     * @param siteId Сайт или {@code null} для всех сайтов
+     * @return {@code int} Количество страниц в индексе
+     */
+    public int pageCount(Long siteId) {
+        if (siteId == null) {
+            return shards.values().stream().mapToInt(shard -> shard.pageCount.get()).sum();
+        }
+        Shard shard = shards.get(siteId);
+        return shard == null ? 0 : shard.pageCount.get();
+    }
+
+    /**
+     * @param siteId Сайт или {@code null} для всех сайтов
+     * @return {@code double} Средняя длина страницы (сумма рангов лемм), {@code 0} для пустого индекса
+     */
+    public double averagePageLength(Long siteId) {
+        if (siteId == null) {
+            int pages = pageCount(null);
+            return pages == 0 ? 0.0 : (double) totalLength.get() / pages;
+        }
+        Shard shard = shards.get(siteId);
+        int pages = shard == null ? 0 : shard.pageCount.get();
+        return pages == 0 ? 0.0 : (double) shard.totalLength.get() / pages;
+    }
+
+    /**
+     * Длины переданных страниц
+     *
+     * @param pages Идентификаторы страниц
+     * @return {@code double[]} Длины страниц в том же порядке
+     */
+    public double[] pageLengths(long[] pages) {
+        double[] lengths = new double[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            lengths[i] = pageLength(pages[i]);
+        }
+        return lengths;
+    }
+
+    /**
+     * Ранги леммы на переданных страницах. Списки отсортированы,
+     * поэтому ранги собираются слиянием со списком леммы каждого сайта.
+     *
+     * @param lemma  Нормализованное слово
+     * @param pages  Отсортированные идентификаторы страниц
+     * @param siteId Сайт, которому принадлежат страницы, или {@code null}
+     * @return {@code int[]} Ранг леммы для каждой страницы, {@code 0} если лемма на странице не встречается
+     */
+    public int[] termFrequencies(String lemma, long[] pages, Long siteId) {
+        int[] frequencies = new int[pages.length];
+        for (Shard shard : scope(siteId)) {
+            PostingList list = shard.get(lemma);
+            if (list == null) {
+                continue;
+            }
+            Snapshot snapshot = list.snapshot();
+            int i = 0, j = 0;
+            while (i < pages.length && j < snapshot.size) {
+                long x = pages[i];
+                long y = snapshot.pageIds[j];
+                if (x == y) {
+                    frequencies[i++] = snapshot.ranks[j++];
+                } else if (x < y) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+        return frequencies;
+    }
+
+    /**
+     * Пересекает списки страниц лемм в переданном порядке. Если очередное пересечение
+     * оказывается пустым, возвращается последний непустой результат.
+     * Если страниц нет уже у первой леммы, результат пустой.
+     * <p>
+     * Списки каждого сайта пересекаются отдельно, но шаги выполняются одновременно для всех сайтов,
+     * поэтому результат совпадает с пересечением общих списков.
+     *
+     * @param lemmas Леммы запроса, упорядоченные по возрастанию частоты
+     * @param siteId Сайт, которым ограничивается поиск, или {@code null} для всех сайтов
+     * @return {@code long[]} Отсортированные идентификаторы найденных страниц
+     */
+    public long[] findPages(List<String> lemmas, Long siteId) {
+        List<Shard> scope = scope(siteId);
+        long[][] result = new long[scope.size()][];
+        boolean matched = false;
+        for (String lemma : lemmas) {
+            long[][] next = new long[scope.size()][];
+            long found = 0;
+            for (int s = 0; s < scope.size(); s++) {
+                PostingList list = scope.get(s).get(lemma);
+                Snapshot snapshot = list == null ? Snapshot.EMPTY : list.snapshot();
+                next[s] = !matched
+                        ? Arrays.copyOf(snapshot.pageIds, snapshot.size)
+                        : intersect(result[s], result[s].length, snapshot.pageIds, snapshot.size);
+                found += next[s].length;
+            }
+            if (found == 0) {
+                break;
+            }
+            result = next;
+            matched = true;
+        }
+        return matched ? merge(result) : EMPTY;
+    }
+
+    /**
+     * @param siteId Сайт
+     * @return {@code int} Количество разных лемм на страницах сайта
+     */
+    public int lemmaCount(long siteId) {
+        Shard shard = shards.get(siteId);
+        return shard == null ? 0 : shard.lemmaCount.get();
+    }
+
+    /**
+     * @param siteId Сайт
+     * @return {@code long} Количество записей индекса (пар лемма-страница) сайта
+     */
+    public long indexRows(long siteId) {
+        Shard shard = shards.get(siteId);
+        return shard == null ? 0 : shard.indexRows.get();
+    }
+
+    /**
+     * Пересчитывает счетчики лемм и записей индекса каждого сайта по спискам страниц
+     */
+    public void recountStatistics() {
+        shards.values().forEach(Shard::recount);
+    }
+
+    private List<Shard> scope(Long siteId) {
+        if (siteId == null) {
+            return List.copyOf(shards.values());
+        }
+        Shard shard = shards.get(siteId);
+        return shard == null ? List.of() : List.of(shard);
+    }
+
+    /**
+     * Объединяет отсортированные списки страниц разных сайтов, списки не пересекаются
+     */
+    private static long[] merge(long[][] lists) {
+        if (lists.length == 1) {
+            return lists[0];
+        }
+        long[] merged = new long[Arrays.stream(lists).mapToInt(list -> list.length).sum()];
+        int offset = 0;
+        for (long[] list : lists) {
+            System.arraycopy(list, 0, merged, offset, list.length);
+            offset += list.length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private Object lockFor(long pageId) {
+        return pageLocks[(int) (pageId & (pageLocks.length - 1))];
+    }
+
+    static long[] intersect(long[] a, int aSize, long[] b, int bSize) {
+        long[] out = new long[Math.min(aSize, bSize)];
+        int i = 0, j = 0, n = 0;
+        while (i < aSize && j < bSize) {
+            long x = a[i];
+            long y = b[j];
+            if (x == y) {
+                out[n++] = x;
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Списки страниц лемм и статистика одного сайта. Если сайт есть в сегменте, списки, которых еще нет
+     * в памяти, читаются из сегмента при первом обращении.
+     */
+    private static final class Shard {
+        private final ConcurrentHashMap<String, PostingList> postings = new ConcurrentHashMap<>();
+        private final IndexSegment segment;
+        /**
+         * Номер сайта в сегменте
+         */
+        private final int segmentSite;
+        private final AtomicInteger pageCount = new AtomicInteger();
+        private final AtomicLong totalLength = new AtomicLong();
+        /**
+         * Количество непустых списков страниц
+         */
+        private final AtomicInteger lemmaCount = new AtomicInteger();
+        /**
+         * Сумма длин списков страниц
+         */
+        private final AtomicLong indexRows = new AtomicLong();
+
+        Shard() {
+            this(null, -1);
+        }
+
+        Shard(IndexSegment segment, int segmentSite) {
+            this.segment = segment;
+            this.segmentSite = segmentSite;
+        }
+
+        /**
+         * @return {@link PostingList} Список страниц леммы или {@code null}, если лемма на сайте не встречалась
+         */
+        PostingList get(String lemma) {
+            PostingList list = postings.get(lemma);
+            if (list != null || segment == null) {
+                return list;
+            }
+            IndexSegment.Postings stored = segment.postings(segmentSite, lemma);
+            return stored == null ? null
+                    : postings.computeIfAbsent(lemma, key -> new PostingList(stored.pageIds(), stored.ranks()));
+        }
+
+        PostingList getOrCreate(String lemma) {
+            PostingList list = get(lemma);
+            return list != null ? list : postings.computeIfAbsent(lemma, key -> new PostingList());
+        }
+
+        /**
+         * Длина списка страниц леммы, список из сегмента при этом не читается
+         */
+        int size(String lemma) {
+            PostingList list = postings.get(lemma);
+            if (list != null) {
+                return list.snapshot().size;
+            }
+            return segment == null ? 0 : segment.documentFrequency(segmentSite, lemma);
+        }
+
+        /**
+         * @param size Длина списка после добавления новой страницы, {@code -1} если страница уже была в списке
+         */
+        void added(int size) {
+            if (size < 0) {
+                return;
+            }
+            indexRows.incrementAndGet();
+            if (size == 1) {
+                lemmaCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * @param size Длина списка после удаления страницы, {@code -1} если страницы не было в списке
+         */
+        void removed(int size) {
+            if (size < 0) {
+                return;
+            }
+            indexRows.decrementAndGet();
+            if (size == 0) {
+                lemmaCount.decrementAndGet();
+            }
+        }
+
+        void recount() {
+            int lemmas = 0;
+            long rows = 0;
+            for (PostingList list : postings.values()) {
+                int size = list.snapshot().size;
+                rows += size;
+                if (size > 0) {
+                    lemmas++;
+                }
+            }
+            if (segment != null) {
+                int[] storedLemmas = {0};
+                long[] storedRows = {0};
+                segment.forEachLemma(segmentSite, (lemma, size) -> {
+                    if (!postings.containsKey(lemma)) {
+                        storedLemmas[0]++;
+                        storedRows[0] += size;
+                    }
+                });
+                lemmas += storedLemmas[0];
+                rows += storedRows[0];
+            }
+            lemmaCount.set(lemmas);
+            indexRows.set(rows);
+        }
+    }
+
+    /**
+     * Неизменяемый снимок списка страниц леммы. Массивы могут быть длиннее {@code size},
+     * элементы за пределами {@code size} читателям не видны.
+     */
+    private record Snapshot(long[] pageIds, int[] ranks, int size) {
+        static final Snapshot EMPTY = new Snapshot(InvertedIndex.EMPTY, new int[0], 0);
+    }
+
+    /**
+     * Список страниц одной леммы. Добавление в конец (новые страницы получают
+     * наибольший id) выполняется без копирования, вставка в середину и удаление
+     * публикуют новые массивы, так что читатели всегда видят согласованный снимок.
+     */
+    private static final class PostingList {
+        private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+        PostingList() {
+        }
+
+        /**
+         * Список, прочитанный из сегмента
+         */
+        PostingList(long[] pageIds, int[] ranks) {
+            snapshot = new Snapshot(pageIds, ranks, pageIds.length);
+        }
+
+        Snapshot snapshot() {
+            return snapshot;
+        }
+
+        /**
+         * @return {@code int} Длина списка после добавления, {@code -1} если страница уже была в списке
+         */
+        synchronized int put(long pageId, int rank) {
+            Snapshot s = snapshot;
+            int pos = Arrays.binarySearch(s.pageIds, 0, s.size, pageId);
+            if (pos >= 0) {
+                if (s.ranks[pos] != rank) {
+                    // снимок могут читать, поэтому ранги копируются, а не меняются на месте
+                    int[] ranks = Arrays.copyOf(s.ranks, s.ranks.length);
+                    ranks[pos] = rank;
+                    snapshot = new Snapshot(s.pageIds, ranks, s.size);
+                }
+                return -1;
+            }
+            int insertAt = -pos - 1;
+            if (insertAt == s.size && s.size < s.pageIds.length) {
+                s.pageIds[s.size] = pageId;
+                s.ranks[s.size] = rank;
+                snapshot = new Snapshot(s.pageIds, s.ranks, s.size + 1);
+                return s.size + 1;
+            }
+            int capacity = Math.max(4, s.size == s.pageIds.length ? s.size + (s.size >> 1) + 1 : s.pageIds.length);
+            long[] ids = new long[capacity];
+            int[] ranks = new int[capacity];
+            System.arraycopy(s.pageIds, 0, ids, 0, insertAt);
+            System.arraycopy(s.ranks, 0, ranks, 0, insertAt);
+            ids[insertAt] = pageId;
+            ranks[insertAt] = rank;
+            System.arraycopy(s.pageIds, insertAt, ids, insertAt + 1, s.size - insertAt);
+            System.arraycopy(s.ranks, insertAt, ranks, insertAt + 1, s.size - insertAt);
+            snapshot = new Snapshot(ids, ranks, s.size + 1);
+            return s.size + 1;
+        }
+
+        /**
+         * @return {@code int} Длина списка после удаления, {@code -1} если страницы не было в списке
+         */
+        synchronized int remove(long pageId) {
+            Snapshot s = snapshot;
+            int pos = Arrays.binarySearch(s.pageIds, 0, s.size, pageId);
+            if (pos < 0) {
+                return -1;
+            }
+            long[] ids = new long[s.pageIds.length];
+            int[] ranks = new int[s.ranks.length];
+            System.arraycopy(s.pageIds, 0, ids, 0, pos);
+            System.arraycopy(s.ranks, 0, ranks, 0, pos);
+            System.arraycopy(s.pageIds, pos + 1, ids, pos, s.size - pos - 1);
+            System.arraycopy(s.ranks, pos + 1, ranks, pos, s.size - pos - 1);
+            snapshot = new Snapshot(ids, ranks, s.size - 1);
+            return s.size - 1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package searchengine.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.RequiredArgsConstructor;
+import org.apache.lucene.morphology.LuceneMorphology;
+import org.springframework.stereotype.Component;
+import searchengine.config.LemmaCacheSettings;
+import searchengine.dto.statistics.LemmaCacheStatistics;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Кэш лемматизации перед словарями {@link LuceneMorphology}.
+ * <p>
+ * Частота слов в тексте распределена по закону Ципфа, поэтому небольшой кэш
+ * словоформ избавляет от большинства обращений к словарям. Кэш общий для
+ * индексации, разбора запросов и построения сниппетов, размер ограничен
+ * {@link LemmaCacheSettings#getMaximumSize()}.
+ */
+@Component
+@RequiredArgsConstructor
+public class LemmaCache {
+
+    private static final Set<String> STOP_POS_TAGS = Set.of(
+            "ПРЕДЛ", "СОЮЗ", "МЕЖД", "ЧАСТ",
+            "PRCL", "CONJ", "PREP", "INTJ"
+    );
+
+    private final LuceneMorphology luceneMorphEn;
+    private final LuceneMorphology luceneMorphRu;
+    private final LemmaCacheSettings settings;
+
+    private Cache<String, WordForm> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(settings.getMaximumSize())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Нормальная форма слова
+     *
+     * @param word Слово в нижнем регистре
+     * @return {@link WordForm} Лемма и признак служебной части речи, {@link WordForm#UNKNOWN} для слов вне словарей
+     */
+    public WordForm lookup(String word) {
+        return cache.get(word, this::analyze);
+    }
+
+    public LemmaCacheStatistics getStatistics() {
+        CacheStats stats = cache.stats();
+        LemmaCacheStatistics statistics = new LemmaCacheStatistics();
+        statistics.setSize(cache.estimatedSize());
+        statistics.setHitCount(stats.hitCount());
+        statistics.setMissCount(stats.missCount());
+        statistics.setHitRate(stats.hitRate());
+        statistics.setEvictionCount(stats.evictionCount());
+        return statistics;
+    }
+
+    private WordForm analyze(String word) {
+        LuceneMorphology morphology;
+        if (luceneMorphEn.checkString(word)) {
+            morphology = luceneMorphEn;
+        } else if (luceneMorphRu.checkString(word)) {
+            morphology = luceneMorphRu;
+        } else {
+            return WordForm.UNKNOWN;
+        }
+        List<String> morphInfo;
+        try {
+            morphInfo = morphology.getMorphInfo(word);
+        } catch (Exception e) {
+            return WordForm.UNKNOWN;
+        }
+        if (morphInfo.isEmpty()) {
+            return WordForm.UNKNOWN;
+        }
+        String firstWord = morphInfo.get(0);
+        int separator = firstWord.indexOf('|');
+        String lemma = separator < 0 ? firstWord : firstWord.substring(0, separator);
+        if (lemma.isEmpty()) {
+            return WordForm.UNKNOWN;
+        }
+        boolean stopWord = STOP_POS_TAGS.stream().anyMatch(firstWord::contains);
+        return new WordForm(lemma, stopWord);
+    }
+
+    /**
+     * Результат лемматизации словоформы
+     *
+     * @param lemma    Нормальная форма, {@code null} если слова нет в словарях
+     * @param stopWord Является ли слово служебной частью речи (предлог, союз, частица, междометие)
+     */
+    public record WordForm(String lemma, boolean stopWord) {
+        public static final WordForm UNKNOWN = new WordForm(null, false);
+
+        /**
+         * @return {@code true} если слово нужно индексировать
+         */
+        public boolean isIndexable() {
+            return lemma != null && !stopWord;
+        }
+    }
+}
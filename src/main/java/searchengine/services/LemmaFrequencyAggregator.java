@@ -0,0 +1,260 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.WriterSettings;
+import searchengine.model.IndexingState;
+import searchengine.repository.IndexingStateRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Накопитель изменений {@code lemma.frequency} и {@code site_lemma.frequency}.
+ * <p>
+ * Вместо чтения и перезаписи частоты в каждом потоке изменения складываются
+ * в {@link LongAdder} по лемме и периодически одной операцией
+ * {@code INSERT ... ON DUPLICATE KEY UPDATE frequency = frequency + ?} переносятся в БД.
+ * Леммы записываются в отсортированном порядке, поэтому параллельные записи
+ * не блокируют друг друга.
+ * <p>
+ * Частота леммы на сайте ведется так же, отдельным накопителем для каждого сайта.
+ * <p>
+ * Частота леммы равна количеству строк {@code indexes} с этой леммой, поэтому
+ * после аварийной остановки, когда накопленные изменения потеряны, частоты
+ * точно пересчитываются из таблицы {@code indexes} при следующем запуске.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LemmaFrequencyAggregator {
+
+    private static final String DIRTY_FLAG = "lemma_frequency_dirty";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IndexingStateRepository indexingStateRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final WriterSettings settings;
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, LongAdder> deltas = new ConcurrentHashMap<>();
+    /**
+     * Сайт -> изменения частот лемм на сайте
+     */
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, LongAdder>> siteDeltas = new ConcurrentHashMap<>();
+    /**
+     * Есть ли изменения, не перенесенные в БД с момента последней штатной остановки
+     */
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+    private Counter flushFailures;
+
+    @PostConstruct
+    public void start() {
+        flushFailures = Counter.builder("searchengine.writer.frequency.failures")
+                .description("Неудачные переносы частот лемм в БД")
+                .register(meterRegistry);
+        boolean dirtyStop = indexingStateRepository.findById(DIRTY_FLAG)
+                .map(state -> Boolean.parseBoolean(state.getValue())).orElse(false);
+        if (dirtyStop || siteFrequenciesMissing()) {
+            recalculateFrequencies();
+        }
+        setDirtyFlag(false);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lemma-frequency-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = settings.getFrequencyFlushIntervalMs();
+        scheduler.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        flush();
+        if (deltas.values().stream().allMatch(delta -> delta.sum() == 0)
+                && siteDeltas.values().stream().flatMap(site -> site.values().stream()).allMatch(delta -> delta.sum() == 0)) {
+            setDirtyFlag(false);
+        }
+    }
+
+    /**
+     * Добавляет изменение частоты леммы на сайте и общей частоты леммы
+     *
+     * @param siteId Идентификатор сайта
+     * @param lemma  Нормализованное слово
+     * @param delta  На сколько изменить частоту
+     */
+    public void add(long siteId, String lemma, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        markDirty();
+        deltas.computeIfAbsent(lemma, key -> new LongAdder()).add(delta);
+        siteDeltas.computeIfAbsent(siteId, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(lemma, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Сохраняет признак несохраненных изменений. Вызывается до фиксации транзакции, изменения которой
+     * потом передаются в {@link #add}: если приложение остановится между фиксацией и {@link #add},
+     * частоты будут пересчитаны при следующем запуске
+     */
+    public void markDirty() {
+        if (dirty.get()) {
+            return;
+        }
+        synchronized (dirty) {
+            if (!dirty.get()) {
+                setDirtyFlag(true);
+            }
+        }
+    }
+
+    /**
+     * Переносит накопленные изменения в БД. Если запись не удалась, изменения
+     * возвращаются в накопитель и будут записаны при следующей попытке.
+     */
+    public synchronized void flush() {
+        TreeMap<String, Long> snapshot = drain(deltas);
+        TreeMap<Long, TreeMap<String, Long>> siteSnapshot = new TreeMap<>();
+        siteDeltas.forEach((siteId, siteLemmas) -> {
+            TreeMap<String, Long> drained = drain(siteLemmas);
+            if (!drained.isEmpty()) {
+                siteSnapshot.put(siteId, drained);
+            }
+        });
+        if (snapshot.isEmpty() && siteSnapshot.isEmpty()) {
+            return;
+        }
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                writeDeltas(snapshot);
+                siteSnapshot.forEach(this::writeSiteDeltas);
+            });
+        } catch (RuntimeException e) {
+            snapshot.forEach((lemma, delta) -> deltas.computeIfAbsent(lemma, key -> new LongAdder()).add(delta));
+            siteSnapshot.forEach((siteId, siteLemmas) -> siteLemmas.forEach((lemma, delta) ->
+                    siteDeltas.computeIfAbsent(siteId, key -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(lemma, key -> new LongAdder()).add(delta)));
+            throw e;
+        }
+    }
+
+    /**
+     * Точно пересчитывает частоты всех лемм и частоты лемм на сайтах по таблице {@code indexes}
+     */
+    public void recalculateFrequencies() {
+        jdbcTemplate.update("UPDATE lemma l LEFT JOIN (SELECT lemma, COUNT(*) AS pages FROM indexes GROUP BY lemma) i "
+                + "ON i.lemma = l.lemma SET l.frequency = COALESCE(i.pages, 0)");
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM site_lemma");
+            jdbcTemplate.update("INSERT INTO site_lemma (site, lemma, frequency) "
+                    + "SELECT p.site, i.lemma, COUNT(*) FROM indexes i JOIN page p ON p.id = i.page GROUP BY p.site, i.lemma");
+        });
+    }
+
+    /**
+     * Частоты лемм на сайтах еще не заполнялись, например после обновления со схемы без {@code site_lemma}
+     */
+    private boolean siteFrequenciesMissing() {
+        Integer siteLemmas = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM site_lemma)", Integer.class);
+        Integer indexes = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM indexes)", Integer.class);
+        return siteLemmas != null && siteLemmas == 0 && indexes != null && indexes == 1;
+    }
+
+    private static TreeMap<String, Long> drain(Map<String, LongAdder> source) {
+        TreeMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : source.entrySet()) {
+            long delta = entry.getValue().sumThenReset();
+            if (delta != 0) {
+                snapshot.put(entry.getKey(), delta);
+            }
+        }
+        return snapshot;
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            flushFailures.increment();
+            log.error("Failed to flush lemma frequencies of {} lemmas, will retry", deltas.size(), e);
+        }
+    }
+
+    private void writeDeltas(SortedMap<String, Long> snapshot) {
+        int chunk = settings.getRowsPerStatement();
+        List<Object> args = new ArrayList<>(chunk * 2);
+        int rows = 0;
+        for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+            args.add(entry.getKey());
+            args.add(entry.getValue());
+            if (++rows == chunk) {
+                executeUpsert(rows, args);
+                args.clear();
+                rows = 0;
+            }
+        }
+        if (rows > 0) {
+            executeUpsert(rows, args);
+        }
+    }
+
+    private void writeSiteDeltas(long siteId, SortedMap<String, Long> snapshot) {
+        int chunk = settings.getRowsPerStatement();
+        List<Object> args = new ArrayList<>(chunk * 3);
+        int rows = 0;
+        for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+            args.add(siteId);
+            args.add(entry.getKey());
+            args.add(entry.getValue());
+            if (++rows == chunk) {
+                executeSiteUpsert(rows, args);
+                args.clear();
+                rows = 0;
+            }
+        }
+        if (rows > 0) {
+            executeSiteUpsert(rows, args);
+        }
+    }
+
+    private void executeSiteUpsert(int rows, List<Object> args) {
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < rows; i++) {
+            values.add("(?, ?, ?)");
+        }
+        jdbcTemplate.update("INSERT INTO site_lemma (site, lemma, frequency) VALUES " + values
+                + " ON DUPLICATE KEY UPDATE frequency = frequency + VALUES(frequency)", args.toArray());
+    }
+
+    private void executeUpsert(int rows, List<Object> args) {
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < rows; i++) {
+            values.add("(?, ?)");
+        }
+        jdbcTemplate.update("INSERT INTO lemma (lemma, frequency) VALUES " + values
+                + " ON DUPLICATE KEY UPDATE frequency = frequency + VALUES(frequency)", args.toArray());
+    }
+
+    private void setDirtyFlag(boolean value) {
+        indexingStateRepository.save(new IndexingState(DIRTY_FLAG, String.valueOf(value)));
+        dirty.set(value);
+    }
+}
@@ -0,0 +1,572 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.SearchSettings;
+import searchengine.config.WriterSettings;
+import searchengine.dto.statistics.StageStatistics;
+import searchengine.dto.statistics.WriterStatistics;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Пакетная запись лемм и индексов страниц.
+ * <p>
+ * Потоки обхода передают леммы страниц в ограниченную очередь ({@link #submit}),
+ * а отдельный поток записи забирает их пачками и в одной транзакции выполняет
+ * многострочные {@code INSERT IGNORE} для новых строк таблицы {@code lemma}
+ * и многострочные {@code INSERT} для таблицы {@code indexes}. Так количество
+ * обращений к БД не зависит от количества лемм на странице.
+ * <p>
+ * До транзакции в {@link LemmaFrequencyAggregator} отмечается, что частоты в БД могут отставать,
+ * после ее фиксации изменения частот передаются в накопитель,
+ * а леммы страниц - в {@link InvertedIndex}. Текст страниц для сниппетов
+ * ({@link PageTextStore}) пишется в той же транзакции, что и индексы, вместе с индексами
+ * пишутся позиции лемм ({@link PositionIndex}), если они включены.
+ * <p>
+ * Пакет, который не удалось записать, повторяется с растущей паузой, а затем пишется по одной странице.
+ * Страницы, которые так и не записаны, отмечаются ошибочными: у них сбрасываются сохраненные валидаторы
+ * ответа, поэтому следующий обход загрузит и проиндексирует их заново.
+ * <p>
+ * Пакетная запись и синхронная переиндексация ({@link #write}) могут писать одну страницу одновременно.
+ * Обе блокируют строки страниц в {@code page} до чтения старых индексов, а запись в БД вместе с обновлением
+ * {@link InvertedIndex} выполняют под блокировкой страницы в памяти, поэтому индекс в памяти применяет
+ * записи страницы в том же порядке, в котором они зафиксированы в БД. Каждая запись
+ * отмечается в {@link IndexSegmentStore}, чтобы сегмент индекса, собранный во время записи, был отброшен.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LemmaIndexWriter {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final InvertedIndex invertedIndex;
+    private final LemmaFrequencyAggregator frequencyAggregator;
+    private final IndexSegmentStore indexSegmentStore;
+    private final WriterSettings settings;
+    private final SearchSettings searchSettings;
+    private final MeterRegistry meterRegistry;
+
+    private BlockingQueue<QueuedPage> queue;
+    private TransactionTemplate transactionTemplate;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    /**
+     * Страницы, которые переданы на запись, но еще не записаны
+     */
+    private final PendingPages pending = new PendingPages();
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong indexRowsWritten = new AtomicLong();
+    private final AtomicLong lemmaRowsUpserted = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private final StageMetrics persistMetrics = new StageMetrics("persist");
+    /**
+     * Сайт -> количество страниц, которые не удалось записать
+     */
+    private final ConcurrentHashMap<Long, AtomicLong> failedPages = new ConcurrentHashMap<>();
+    /**
+     * Блокировки записи страниц, одна страница всегда попадает на одну и ту же блокировку
+     */
+    private final ReentrantLock[] pageLocks = Stream.generate(ReentrantLock::new).limit(64)
+            .toArray(ReentrantLock[]::new);
+    private Counter batchFailures;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        persistMetrics.bindTo(meterRegistry);
+        batchFailures = Counter.builder("searchengine.writer.batch.failures")
+                .description("Пакеты страниц, которые не удалось записать")
+                .register(meterRegistry);
+        Gauge.builder("searchengine.pipeline.queue", queue, Collection::size)
+                .description("Страницы, ожидающие этапа конвейера")
+                .tag("stage", "persist")
+                .register(meterRegistry);
+        running = true;
+        writerThread = new Thread(this::writeLoop, "lemma-index-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.interrupt();
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    /**
+     * Передает леммы страницы на асинхронную запись. Если очередь заполнена,
+     * вызывающий поток ждет, пока поток записи не освободит место.
+     *
+     * @param page Леммы страницы
+     */
+    public void submit(PageLemmas page) {
+        submit(page, null);
+    }
+
+    /**
+     * @param page      Леммы страницы
+     * @param onFailure Вызывается в потоке записи, если страницу так и не удалось записать, или {@code null}
+     * @see #submit(PageLemmas)
+     */
+    public void submit(PageLemmas page, Runnable onFailure) {
+        pending.add(page.siteId());
+        try {
+            queue.put(new QueuedPage(page, onFailure));
+        } catch (InterruptedException e) {
+            pending.done(page.siteId());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Синхронно переиндексирует одну страницу в вызывающем потоке. Старые и новые леммы
+     * сравниваются, и в одной транзакции удаляются только исчезнувшие строки {@code indexes},
+     * обновляются изменившиеся ранги, добавляются новые леммы, а частоты лемм меняются
+     * ровно на разницу. Если леммы страницы не изменились, перезаписывается только текст страницы.
+     *
+     * @param page Леммы страницы
+     */
+    public void write(PageLemmas page) {
+        indexSegmentStore.beginWrite();
+        try {
+            withPageLocks(List.of(page), () -> {
+                long start = System.nanoTime();
+                try {
+                    transactionTemplate.executeWithoutResult(status -> writeDelta(page));
+                } catch (RuntimeException e) {
+                    failedBatches.incrementAndGet();
+                    batchFailures.increment();
+                    log.error("Failed to write page {} of site {}", page.pageId(), page.siteId(), e);
+                    throw e;
+                } finally {
+                    flushNanos.addAndGet(System.nanoTime() - start);
+                    batches.incrementAndGet();
+                }
+                invertedIndex.indexPage(page.pageId(), page.siteId(), page.lemmas());
+                return null;
+            });
+            pagesWritten.incrementAndGet();
+        } finally {
+            indexSegmentStore.endWrite();
+        }
+    }
+
+    /**
+     * Ожидает, пока все переданные на запись страницы сайта не будут записаны,
+     * и переносит накопленные частоты лемм в БД. Страницы других сайтов не ожидаются.
+     *
+     * @param siteId Сайт
+     * @throws InterruptedException если поток был прерван во время ожидания
+     */
+    public void awaitFlushed(long siteId) throws InterruptedException {
+        pending.await(siteId, settings.getFlushIntervalMs());
+        frequencyAggregator.flush();
+    }
+
+    /**
+     * Ожидает записи страниц всех сайтов
+     *
+     * @throws InterruptedException если поток был прерван во время ожидания
+     * @see #awaitFlushed(long)
+     */
+    public void awaitFlushed() throws InterruptedException {
+        pending.awaitAll(settings.getFlushIntervalMs());
+        frequencyAggregator.flush();
+    }
+
+    public WriterStatistics getStatistics() {
+        WriterStatistics statistics = new WriterStatistics();
+        long batchCount = batches.get();
+        long nanos = flushNanos.get();
+        statistics.setQueueSize(queue.size());
+        statistics.setPagesWritten(pagesWritten.get());
+        statistics.setIndexRowsWritten(indexRowsWritten.get());
+        statistics.setLemmaRowsUpserted(lemmaRowsUpserted.get());
+        statistics.setBatches(batchCount);
+        statistics.setFailedBatches(failedBatches.get());
+        statistics.setFailedPages(failedPages.values().stream().mapToLong(AtomicLong::get).sum());
+        statistics.setAverageBatchMillis(batchCount == 0 ? 0 : nanos / 1e6 / batchCount);
+        statistics.setIndexRowsPerSecond(nanos == 0 ? 0 : indexRowsWritten.get() / (nanos / 1e9));
+        return statistics;
+    }
+
+    /**
+     * @return {@link StageStatistics} Статистика записи как этапа конвейера индексации
+     */
+    public StageStatistics getStageStatistics() {
+        return persistMetrics.getStatistics(queue.size());
+    }
+
+    private void writeLoop() {
+        List<QueuedPage> batch = new ArrayList<>(settings.getPagesPerFlush());
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedPage first = queue.poll(settings.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, settings.getPagesPerFlush() - 1);
+            } catch (InterruptedException e) {
+                queue.drainTo(batch, settings.getPagesPerFlush());
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            indexSegmentStore.beginWrite();
+            try {
+                flushWithRetry(batch);
+            } finally {
+                indexSegmentStore.endWrite();
+                batch.forEach(page -> pending.done(page.lemmas().siteId()));
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Пишет пакет, после ошибки повторяет запись с удваивающейся паузой. Если пакет так и не записан,
+     * страницы пишутся по одной, чтобы одна ошибочная страница не теряла весь пакет
+     */
+    private void flushWithRetry(List<QueuedPage> queued) {
+        List<PageLemmas> batch = queued.stream().map(QueuedPage::lemmas).toList();
+        long backoff = settings.getRetryBackoffMs();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                flush(batch);
+                return;
+            } catch (Exception e) {
+                if (attempt > settings.getMaxRetries() || !sleep(backoff)) {
+                    log.error("Failed to write batch of {} pages of sites {} after {} attempts",
+                            batch.size(), sitesOf(batch), attempt, e);
+                    break;
+                }
+                log.warn("Failed to write batch of {} pages of sites {}, attempt {}: {}",
+                        batch.size(), sitesOf(batch), attempt, e.toString());
+                backoff *= 2;
+            }
+        }
+        batchFailures.increment();
+        if (queued.size() == 1) {
+            markFailed(queued.get(0));
+            return;
+        }
+        for (QueuedPage page : queued) {
+            try {
+                flush(List.of(page.lemmas()));
+            } catch (Exception e) {
+                log.error("Failed to write page {} of site {}", page.lemmas().pageId(), page.lemmas().siteId(), e);
+                markFailed(page);
+            }
+        }
+    }
+
+    /**
+     * @return {@code boolean} {@code false}, если поток прерван и повторять запись не нужно
+     */
+    private static boolean sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Сбрасывает валидаторы ответа страницы, чтобы следующий обход не пропустил ее как неизменившуюся,
+     * и сообщает об ошибке тому, кто передал страницу
+     */
+    private void markFailed(QueuedPage queued) {
+        PageLemmas page = queued.lemmas();
+        failedPages.computeIfAbsent(page.siteId(), id -> new AtomicLong()).incrementAndGet();
+        if (queued.onFailure() != null) {
+            queued.onFailure().run();
+        }
+        try {
+            jdbcTemplate.update("UPDATE page SET content_hash = NULL, etag = NULL, last_modified = NULL WHERE id = ?",
+                    page.pageId());
+        } catch (RuntimeException e) {
+            log.error("Failed to mark page {} of site {} for reindexing", page.pageId(), page.siteId(), e);
+        }
+    }
+
+    private void flush(List<PageLemmas> pages) {
+        Map<Long, PageLemmas> lastByPage = new LinkedHashMap<>();
+        for (PageLemmas page : pages) {
+            lastByPage.put(page.pageId(), page);
+        }
+        List<PageLemmas> batch = new ArrayList<>(lastByPage.values());
+        // признак ставится до фиксации: частоты, не дошедшие до накопителя, пересчитаются после сбоя
+        frequencyAggregator.markDirty();
+        Map<Long, Map<String, Long>> frequencyDeltas = withPageLocks(batch, () -> {
+            long start = System.nanoTime();
+            Map<Long, Map<String, Long>> deltas;
+            try {
+                deltas = transactionTemplate.execute(status -> writeBatch(batch));
+                persistMetrics.record(batch.size(), System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                failedBatches.incrementAndGet();
+                persistMetrics.recordFailure();
+                throw e;
+            } finally {
+                flushNanos.addAndGet(System.nanoTime() - start);
+                batches.incrementAndGet();
+            }
+            for (PageLemmas page : batch) {
+                invertedIndex.indexPage(page.pageId(), page.siteId(), page.lemmas());
+            }
+            return deltas;
+        });
+        frequencyDeltas.forEach((siteId, siteDeltas) ->
+                siteDeltas.forEach((lemma, delta) -> frequencyAggregator.add(siteId, lemma, delta)));
+        pagesWritten.addAndGet(batch.size());
+    }
+
+    /**
+     * Выполняет запись под блокировками страниц. Блокировки берутся по возрастанию номера,
+     * поэтому пакетная и синхронная запись не могут ждать друг друга по кругу
+     */
+    private <T> T withPageLocks(Collection<PageLemmas> pages, Supplier<T> write) {
+        int[] stripes = pages.stream().mapToInt(page -> (int) (page.pageId() & (pageLocks.length - 1)))
+                .distinct().sorted().toArray();
+        for (int stripe : stripes) {
+            pageLocks[stripe].lock();
+        }
+        try {
+            return write.get();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                pageLocks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    /**
+     * @return {@code Map<Long, Map<String, Long>>} Сайт -> изменения частот лемм на сайте,
+     * которые нужно применить после фиксации транзакции
+     */
+    private Map<Long, Map<String, Long>> writeBatch(List<PageLemmas> batch) {
+        Object[] pageIds = batch.stream().map(PageLemmas::pageId).toArray();
+        String pagePlaceholders = placeholders(pageIds.length, "?");
+
+        // строки страниц блокируются до чтения старых индексов, как и в writeDelta
+        jdbcTemplate.queryForList("SELECT id FROM page WHERE id IN (" + pagePlaceholders + ") ORDER BY id FOR UPDATE",
+                Long.class, pageIds);
+        Map<Long, Map<String, Long>> frequencyDeltas = new HashMap<>();
+        jdbcTemplate.query("SELECT p.site, i.lemma, COUNT(*) FROM indexes i JOIN page p ON p.id = i.page "
+                        + "WHERE i.page IN (" + pagePlaceholders + ") GROUP BY p.site, i.lemma",
+                (RowCallbackHandler) rs -> frequencyDeltas.computeIfAbsent(rs.getLong(1), site -> new HashMap<>())
+                        .merge(rs.getString(2), -rs.getLong(3), Long::sum),
+                pageIds);
+        jdbcTemplate.update("DELETE FROM indexes WHERE page IN (" + pagePlaceholders + ")", pageIds);
+
+        TreeSet<String> newLemmas = new TreeSet<>();
+        for (PageLemmas page : batch) {
+            Map<String, Long> siteDeltas = frequencyDeltas.computeIfAbsent(page.siteId(), site -> new HashMap<>());
+            for (String lemma : page.lemmas().keySet()) {
+                siteDeltas.merge(lemma, 1L, Long::sum);
+                newLemmas.add(lemma);
+            }
+        }
+        insertLemmas(newLemmas);
+        insertIndexes(batch);
+        writeTexts(batch);
+        return frequencyDeltas;
+    }
+
+    private void writeDelta(PageLemmas page) {
+        Map<String, Long> oldLemmas = new HashMap<>();
+        Map<String, byte[]> oldPositions = new HashMap<>();
+        jdbcTemplate.queryForList("SELECT id FROM page WHERE id = ? FOR UPDATE", Long.class, page.pageId());
+        jdbcTemplate.query("SELECT lemma, rank_value, positions FROM indexes WHERE page = ? FOR UPDATE",
+                (RowCallbackHandler) rs -> {
+                    oldLemmas.put(rs.getString(1), rs.getLong(2));
+                    oldPositions.put(rs.getString(1), rs.getBytes(3));
+                },
+                page.pageId());
+        Map<String, byte[]> positions = encodePositions(page);
+
+        TreeSet<String> removed = new TreeSet<>(oldLemmas.keySet());
+        removed.removeAll(page.lemmas().keySet());
+        TreeMap<String, Long> added = new TreeMap<>();
+        List<Object[]> changed = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : page.lemmas().entrySet()) {
+            Long oldRank = oldLemmas.get(entry.getKey());
+            byte[] newPositions = positions.get(entry.getKey());
+            if (oldRank == null) {
+                added.put(entry.getKey(), entry.getValue());
+            } else if (!oldRank.equals(entry.getValue())
+                    || !Arrays.equals(oldPositions.get(entry.getKey()), newPositions)) {
+                changed.add(new Object[]{entry.getValue(), newPositions, page.pageId(), entry.getKey()});
+            }
+        }
+
+        for (List<String> chunk : chunks(new ArrayList<>(removed))) {
+            String in = placeholders(chunk.size(), "?");
+            List<Object> args = new ArrayList<>(chunk.size() + 1);
+            args.add(page.pageId());
+            args.addAll(chunk);
+            jdbcTemplate.update("DELETE FROM indexes WHERE page = ? AND lemma IN (" + in + ")", args.toArray());
+            jdbcTemplate.update("UPDATE lemma SET frequency = frequency - 1 WHERE lemma IN (" + in + ")", chunk.toArray());
+            List<Object> siteArgs = new ArrayList<>(chunk.size() + 1);
+            siteArgs.add(page.siteId());
+            siteArgs.addAll(chunk);
+            jdbcTemplate.update("UPDATE site_lemma SET frequency = frequency - 1 WHERE site = ? AND lemma IN (" + in + ")",
+                    siteArgs.toArray());
+        }
+        if (!changed.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE indexes SET rank_value = ?, positions = ? WHERE page = ? AND lemma = ?",
+                    changed);
+        }
+        for (List<String> chunk : chunks(new ArrayList<>(added.keySet()))) {
+            jdbcTemplate.update("INSERT INTO lemma (lemma, frequency) VALUES " + placeholders(chunk.size(), "(?, 1)")
+                    + " ON DUPLICATE KEY UPDATE frequency = frequency + 1", chunk.toArray());
+            List<Object> siteArgs = new ArrayList<>(chunk.size() * 2);
+            for (String lemma : chunk) {
+                siteArgs.add(page.siteId());
+                siteArgs.add(lemma);
+            }
+            jdbcTemplate.update("INSERT INTO site_lemma (site, lemma, frequency) VALUES "
+                    + placeholders(chunk.size(), "(?, ?, 1)") + " ON DUPLICATE KEY UPDATE frequency = frequency + 1",
+                    siteArgs.toArray());
+            lemmaRowsUpserted.addAndGet(chunk.size());
+        }
+        if (!added.isEmpty()) {
+            insertIndexes(List.of(new PageLemmas(page.pageId(), page.siteId(), added, page.text())));
+        }
+        writeTexts(List.of(page));
+    }
+
+    private static Set<Long> sitesOf(List<PageLemmas> batch) {
+        Set<Long> sites = new TreeSet<>();
+        batch.forEach(page -> sites.add(page.siteId()));
+        return sites;
+    }
+
+    private void writeTexts(List<PageLemmas> batch) {
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        for (PageLemmas page : batch) {
+            if (page.text() != null) {
+                rows.add(PageTextStore.upsertArgs(page.pageId(), page.text()));
+            }
+        }
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(PageTextStore.UPSERT, rows);
+        }
+    }
+
+    private <T> List<List<T>> chunks(List<T> values) {
+        int chunk = settings.getRowsPerStatement();
+        List<List<T>> result = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += chunk) {
+            result.add(values.subList(from, Math.min(values.size(), from + chunk)));
+        }
+        return result;
+    }
+
+    /**
+     * Создает недостающие строки {@code lemma} с нулевой частотой, частоту затем
+     * увеличивает {@link LemmaFrequencyAggregator}. Леммы отсортированы, поэтому
+     * параллельные транзакции блокируют строки в одном и том же порядке.
+     */
+    private void insertLemmas(SortedSet<String> lemmas) {
+        int chunk = settings.getRowsPerStatement();
+        List<Object> args = new ArrayList<>(chunk);
+        for (String lemma : lemmas) {
+            args.add(lemma);
+            if (args.size() == chunk) {
+                executeLemmaInsert(args);
+                args.clear();
+            }
+        }
+        if (!args.isEmpty()) {
+            executeLemmaInsert(args);
+        }
+    }
+
+    private void executeLemmaInsert(List<Object> args) {
+        jdbcTemplate.update("INSERT IGNORE INTO lemma (lemma, frequency) VALUES " + placeholders(args.size(), "(?, 0)"),
+                args.toArray());
+        lemmaRowsUpserted.addAndGet(args.size());
+    }
+
+    private void insertIndexes(List<PageLemmas> batch) {
+        int chunk = settings.getRowsPerStatement();
+        List<Object> args = new ArrayList<>(chunk * 4);
+        int rows = 0;
+        for (PageLemmas page : batch) {
+            Map<String, byte[]> positions = encodePositions(page);
+            for (Map.Entry<String, Long> entry : page.lemmas().entrySet()) {
+                args.add(entry.getKey());
+                args.add(page.pageId());
+                args.add(entry.getValue());
+                args.add(positions.get(entry.getKey()));
+                if (++rows == chunk) {
+                    executeIndexInsert(rows, args);
+                    args.clear();
+                    rows = 0;
+                }
+            }
+        }
+        if (rows > 0) {
+            executeIndexInsert(rows, args);
+        }
+    }
+
+    private void executeIndexInsert(int rows, List<Object> args) {
+        jdbcTemplate.update("INSERT INTO indexes (lemma, page, rank_value, positions) VALUES "
+                + placeholders(rows, "(?, ?, ?, ?)"), args.toArray());
+        indexRowsWritten.addAndGet(rows);
+    }
+
+    /**
+     * @return {@code Map<String, byte[]>} Лемма -> закодированные позиции, пустая, если позиции
+     * выключены или текст страницы не передан
+     */
+    private Map<String, byte[]> encodePositions(PageLemmas page) {
+        if (page.text() == null || !searchSettings.getPositions().isEnabled()) {
+            return Map.of();
+        }
+        Map<String, byte[]> encoded = new HashMap<>();
+        page.text().positions().forEach((lemma, positions) -> encoded.put(lemma, PositionIndex.encode(positions)));
+        return encoded;
+    }
+
+    private static String placeholders(int count, String placeholder) {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (int i = 0; i < count; i++) {
+            joiner.add(placeholder);
+        }
+        return joiner.toString();
+    }
+
+    private record QueuedPage(PageLemmas lemmas, Runnable onFailure) {
+    }
+}
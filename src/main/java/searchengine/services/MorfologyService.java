@@ -1,181 +1,145 @@
 package searchengine.services;
 
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.springframework.transaction.annotation.Transactional;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Node;
 import searchengine.dto.statistics.ShortInfo;
-import searchengine.model.Index;
-import searchengine.model.Lemma;
 import searchengine.model.PageModel;
-import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
 
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * Сервис по лемматизации слов
  */
 public class MorfologyService implements Callable<ShortInfo> {
 
-    private final LuceneMorphology luceneMorphEn;
-    private final LuceneMorphology luceneMorphRu;
-    private final IndexRepository indexRepository;
-    private final LemmaRepository lemmaRepository;
+    private final LemmaCache lemmaCache;
     private final PageRepository pageRepository;
+    private final PageContentStore pageContentStore;
+    private final LemmaIndexWriter lemmaIndexWriter;
+    private final SearchResultCache searchResultCache;
 
     private PageModel siteForIndexing;
 
-    public MorfologyService(LuceneMorphology luceneMorphEn, LuceneMorphology luceneMorphRu,
-                            IndexRepository indexRepository, LemmaRepository lemmaRepository,
-                            PageRepository pageRepository, PageModel siteForIndexing) {
-        this.luceneMorphEn = luceneMorphEn;
-        this.luceneMorphRu = luceneMorphRu;
-        this.indexRepository = indexRepository;
-        this.lemmaRepository = lemmaRepository;
+    public MorfologyService(LemmaCache lemmaCache, PageRepository pageRepository, PageContentStore pageContentStore,
+                            LemmaIndexWriter lemmaIndexWriter, SearchResultCache searchResultCache,
+                            PageModel siteForIndexing) {
+        this.lemmaCache = lemmaCache;
         this.pageRepository = pageRepository;
+        this.pageContentStore = pageContentStore;
+        this.lemmaIndexWriter = lemmaIndexWriter;
+        this.searchResultCache = searchResultCache;
         this.siteForIndexing = siteForIndexing;
     }
 
-    private final Set<String> stopPosTags = new HashSet<>(Arrays.asList(
-            "ПРЕДЛ", "СОЮЗ", "МЕЖД", "ЧАСТ",
-            "PRCL", "CONJ", "PREP", "INTJ"
-    ));
-
-    static List<String> prepareString(String someString) {
-        someString = someString.replaceAll("[,.?{}'<>\\[\\](\")!—-]", "");
-        someString = someString.replaceAll("</?[a-z]*>", "");
-        someString = someString.replaceAll("[a-z]+=", "");
-        List<String> words = List.of(someString.split("\\s"));
-        return words.stream().filter(f -> !f.isEmpty()).toList();
+    /**
+     * Лемматизирует обычный текст, например поисковый запрос
+     *
+     * @param text Текст без разметки
+     * @return {@code HashMap<String, Long>} Map из Лемм и частоты их повторения
+     */
+    public HashMap<String, Long> morphologyForms(String text) {
+        HashMap<String, Long> targetWords = new HashMap<>();
+        new TextTokenizer().tokenize(text, word -> addLemma(word, targetWords));
+        return targetWords;
     }
 
-    static String prepareSingleWord(String someString) {
-        someString = someString.replaceAll("[,.?{}'\\[\\](\")!—-]", "");
-        return someString.substring(0, someString.indexOf("|"));
+    /**
+     * Лемматизирует текстовые узлы HTML документа, содержимое {@code script}
+     * и {@code style} и атрибуты тегов пропускаются
+     *
+     * @param root Документ или элемент
+     * @return {@code HashMap<String, Long>} Map из Лемм и частоты их повторения
+     */
+    public HashMap<String, Long> morphologyForms(Node root) {
+        HashMap<String, Long> targetWords = new HashMap<>();
+        new TextTokenizer().tokenize(root, word -> addLemma(word, targetWords));
+        return targetWords;
     }
 
     /**
-     * Проверяем, является ли строка словом и
-     * принадлежит язык слова выбранному словарю
-     * если слово не подходит - возвращаем пустой список
+     * Лемматизирует страницу и за тот же проход собирает ее текст с положением
+     * каждого проиндексированного слова для построения сниппетов
      *
-     * @param word Слово для проверки
-     * @return {@code HashMap<String, Long>} Mao из Лемм и частоты их повторения
+     * @param pageId Идентификатор страницы
+     * @param siteId Идентификатор сайта страницы
+     * @param root   Документ или элемент
+     * @return {@link PageLemmas} Леммы и текст страницы
      */
-    public HashMap<String, Long> morphologyForms(String word) {
-
-        List<String> stringList = prepareString(word);
+    public PageLemmas analyzePage(long pageId, long siteId, Node root) {
         HashMap<String, Long> targetWords = new HashMap<>();
-        for (String underString : stringList) {
-            boolean flag = false;
-
-            if (!luceneMorphEn.checkString(underString)) {
-                if (!luceneMorphRu.checkString(underString)) {
-                } else {
-                    String firstWord = luceneMorphRu.getMorphInfo(underString).get(0);
-                    for (String notAimPartOfSpeech : stopPosTags) {
-                        if (firstWord.contains(notAimPartOfSpeech)) {
-                            flag = true;
-                            break;
-                        }
-                    }
-                    if (!flag) {
-                        firstWord = prepareSingleWord(firstWord);
-                        if (targetWords.containsKey(firstWord)) {
-                            targetWords.put(firstWord, targetWords.get(firstWord) + 1);
-                        } else {
-                            targetWords.put(firstWord, 1L);
-                        }
-                    }
-                }
-            } else {
-                try {
-                    String firstWord = luceneMorphEn.getMorphInfo(underString).get(0);
-                    for (String notAimPartOfSpeech : stopPosTags) {
-                        if (firstWord.contains(notAimPartOfSpeech)) {
-                            flag = true;
-                            break;
-                        }
-                    }
-                    if (!flag) {
-                        firstWord = prepareSingleWord(firstWord);
-                        if (targetWords.containsKey(firstWord)) {
-                            targetWords.put(firstWord, targetWords.get(firstWord) + 1);
-                        } else {
-                            targetWords.put(firstWord, 1L);
-                        }
-                    }
-                } catch (Exception e) {
-                }
+        PageTextLayout.Builder layout = new PageTextLayout.Builder();
+        String text = new TextTokenizer().extract(root, (word, start, end) -> {
+            LemmaCache.WordForm form = lemmaCache.lookup(word);
+            if (form.isIndexable()) {
+                targetWords.merge(form.lemma(), 1L, Long::sum);
+                layout.add(form.lemma(), start, end);
             }
-        }
-        targetWords.remove("");
-        return targetWords;
+        });
+        return new PageLemmas(pageId, siteId, targetWords, layout.build(text));
     }
 
-    @Transactional
-    public ShortInfo indexPage(PageModel page) {
-        page = pageRepository.findById(page.getId()).orElseThrow(() -> new RuntimeException("no page"));
-        List<Index> indexesByPage = page.getIndexList();
-        indexRepository.deleteAll(indexesByPage);
-        HashMap<String, Long> map = morphologyForms(page.getContent());
+    /**
+     * Добавляет лемму слова, служебные части речи и слова вне словарей пропускаются
+     *
+     * @param word        Слово в нижнем регистре
+     * @param targetWords Леммы и частота их повторения
+     */
+    private void addLemma(String word, Map<String, Long> targetWords) {
+        LemmaCache.WordForm form = lemmaCache.lookup(word);
+        if (form.isIndexable()) {
+            targetWords.merge(form.lemma(), 1L, Long::sum);
+        }
+    }
 
-        if (map.isEmpty()) {
+    /**
+     * Синхронно индексирует страницу: в вызывающем потоке записываются только
+     * изменения лемм относительно прошлой индексации страницы, кэш результатов поиска сбрасывается
+     *
+     * @param page     Страница
+     * @param document Разобранное содержимое страницы
+     * @return {@link ShortInfo} Короткий формат ответа
+     */
+    public ShortInfo indexPage(PageModel page, Document document) {
+        PageLemmas lemmas = analyzePage(page.getId(), page.getSite().getId(), document);
+        lemmaIndexWriter.write(lemmas);
+        searchResultCache.invalidate();
+        if (lemmas.lemmas().isEmpty()) {
             return new ShortInfo(false, "Invalid content");
         }
+        return new ShortInfo(true, "переиндексация завершена");
+    }
 
-        Set<Lemma> lemmasInDB = new HashSet<>(lemmaRepository.findAllByLemmaIn(map.keySet()));
-        Map<String, Lemma> lemmasMap = lemmasInDB.stream()
-                .collect(Collectors.toMap(Lemma::getLemma, Function.identity()));
-
-        List<Index> newIndexes = new ArrayList<>();
-        List<Lemma> updatedLemmas = new ArrayList<>();
-        List<Lemma> newLemmas = new ArrayList<>();
-
-        for (Map.Entry<String, Long> entry : map.entrySet()) {
-            String lemmaKey = entry.getKey();
-            Long rank = entry.getValue();
-
-            Lemma lemma = lemmasMap.get(lemmaKey);
-            if (lemma == null) {
-                lemma = new Lemma();
-                lemma.setLemma(lemmaKey);
-                lemma.setFrequency(1L);
-
-                Index newIndex = new Index(null, lemma, page, rank);
-                newLemmas.add(lemma);
-                newIndexes.add(newIndex);
-            } else {
-                lemma.setFrequency(lemma.getFrequency() + 1L);
-                updatedLemmas.add(lemma);
-
-                boolean indexExists = indexRepository.existsByPageAndLemma(page, lemma); //lemma.getIndexList().stream().anyMatch(index -> index.getPage().getId() == thePageId);
-
-                if (!indexExists) {
-                    Index newIndex = new Index(null, lemma, page, rank);
-                    newIndexes.add(newIndex);
-                } else {
-                    List<Index> indexes = indexRepository.findAllByPageAndLemma(page, lemma).stream()
-                            .peek(index -> index.setRank(rank))
-                            .toList();
-                    newIndexes.addAll(indexes);
-                    updatedLemmas.add(lemma);
-                }
-            }
-        }
-        if (!newLemmas.isEmpty()) {
-            lemmaRepository.saveAll(newLemmas);
-        }
-        if (!updatedLemmas.isEmpty()) {
-            lemmaRepository.saveAll(updatedLemmas);
+    /**
+     * Лемматизирует страницу и передает леммы в очередь пакетной записи {@link LemmaIndexWriter}
+     *
+     * @param page Сохраненная страница, содержимое берется из {@link PageContentStore}
+     * @return {@link ShortInfo} Короткий формат ответа
+     */
+    public ShortInfo submitPage(PageModel page) {
+        String content = pageContentStore.load(page.getId());
+        if (content == null) {
+            return new ShortInfo(false, "Invalid content");
         }
-        if (!newIndexes.isEmpty()) {
-            indexRepository.saveAll(newIndexes);
+        return submitPage(page, Jsoup.parse(content));
+    }
+
+    /**
+     * Лемматизирует уже разобранную страницу и передает леммы в очередь пакетной записи {@link LemmaIndexWriter}
+     *
+     * @param page     Страница
+     * @param document Разобранное содержимое страницы
+     * @return {@link ShortInfo} Короткий формат ответа
+     */
+    public ShortInfo submitPage(PageModel page, Document document) {
+        PageLemmas lemmas = analyzePage(page.getId(), page.getSite().getId(), document);
+        lemmaIndexWriter.submit(lemmas);
+        if (lemmas.lemmas().isEmpty()) {
+            return new ShortInfo(false, "Invalid content");
         }
-        return new ShortInfo(true, "переиндексация завершена");
+        return new ShortInfo(true, "леммы переданы на запись");
     }
 
     public ShortInfo checkSite(PageModel page) {
@@ -184,7 +148,7 @@ public class MorfologyService implements Callable<ShortInfo> {
             return new ShortInfo(false, "Данная страница находится за пределами сайтов, \n" +
                     "указанных в конфигурационном файле\n");
         }
-        return indexPage(pageDB);
+        return submitPage(pageDB);
     }
 
     @Override
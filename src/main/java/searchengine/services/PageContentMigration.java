@@ -0,0 +1,71 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.model.PageModel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Перенос HTML из устаревшего столбца {@code page.content} в {@link PageContentStore}.
+ * <p>
+ * Выполняется при старте, пока столбец существует: страницы переносятся пачками по
+ * возрастанию id, для каждой заполняются заголовок и длина текста, после чего столбец удаляется.
+ * Перенос выполняется после создания всех бинов, но до запуска веб-сервера, поэтому ни один запрос
+ * не видит частично перенесенные страницы.
+ * Повторный запуск после сбоя просто перезаписывает уже перенесенные страницы.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PageContentMigration implements SmartInitializingSingleton {
+
+    private static final int CHUNK = 200;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PageContentStore pageContentStore;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        migrate();
+    }
+
+    public void migrate() {
+        Integer legacyColumns = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.columns "
+                + "WHERE table_schema = DATABASE() AND table_name = 'page' AND column_name = 'content'", Integer.class);
+        if (legacyColumns == null || legacyColumns == 0) {
+            return;
+        }
+        long lastId = 0;
+        long migrated = 0;
+        while (true) {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "SELECT id, site, content FROM page WHERE id > ? ORDER BY id LIMIT " + CHUNK, lastId);
+            if (rows.isEmpty()) {
+                break;
+            }
+            for (Map<String, Object> row : rows) {
+                long id = ((Number) row.get("id")).longValue();
+                String html = (String) row.get("content");
+                if (html != null) {
+                    PageModel metadata = new PageModel();
+                    Document document = Jsoup.parse(html);
+                    PageContentStore.fillMetadata(metadata, document);
+                    pageContentStore.save(id, ((Number) row.get("site")).longValue(), html);
+                    jdbcTemplate.update("UPDATE page SET title = ?, text_length = ? WHERE id = ?",
+                            metadata.getTitle(), metadata.getTextLength(), id);
+                }
+                lastId = id;
+                migrated++;
+            }
+        }
+        jdbcTemplate.execute("ALTER TABLE page DROP COLUMN content");
+        log.info("Migrated content of {} pages to page_content", migrated);
+    }
+}
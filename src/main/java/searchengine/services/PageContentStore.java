@@ -0,0 +1,122 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.jsoup.nodes.Document;
+import org.springframework.stereotype.Component;
+import searchengine.model.PageContent;
+import searchengine.model.PageModel;
+import searchengine.repository.PageContentRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Хранилище HTML содержимого страниц в отдельной таблице {@code page_content}.
+ * <p>
+ * Содержимое сжимается {@link Deflater} с уровнем {@link Deflater#BEST_SPEED}: HTML сжимается
+ * в несколько раз, а распаковка нужна только для страниц, попавших в выдачу.
+ * Таблица {@code page} хранит только метаданные, заголовок и длину текста.
+ */
+@Component
+@RequiredArgsConstructor
+public class PageContentStore {
+
+    private static final int TITLE_LENGTH = 255;
+
+    private final PageContentRepository pageContentRepository;
+    private final SiteStatisticsCounters statisticsCounters;
+
+    /**
+     * Заполняет заголовок и длину текста страницы по разобранному документу
+     *
+     * @param page     Страница
+     * @param document Разобранное содержимое страницы
+     */
+    public static void fillMetadata(PageModel page, Document document) {
+        String title = document.title();
+        page.setTitle(title.length() > TITLE_LENGTH ? title.substring(0, TITLE_LENGTH) : title);
+        page.setTextLength(document.text().length());
+    }
+
+    /**
+     * Сохраняет или заменяет содержимое страницы и учитывает изменение его размера
+     * в {@link SiteStatisticsCounters}
+     *
+     * @param pageId Идентификатор страницы
+     * @param siteId Идентификатор сайта страницы
+     * @param html   HTML страницы
+     */
+    public void save(long pageId, long siteId, String html) {
+        byte[] raw = html.getBytes(StandardCharsets.UTF_8);
+        Integer previous = pageContentRepository.findRawLength(pageId);
+        pageContentRepository.save(new PageContent(pageId, raw.length, compress(raw)));
+        statisticsCounters.contentChanged(siteId, raw.length - (previous == null ? 0 : previous));
+    }
+
+    /**
+     * @param pageId Идентификатор страницы
+     * @return {@link String} HTML страницы или {@code null}, если содержимое не сохранено
+     */
+    public String load(long pageId) {
+        return pageContentRepository.findById(pageId).map(PageContentStore::decompress).orElse(null);
+    }
+
+    /**
+     * @param pageIds Идентификаторы страниц
+     * @return {@code Map<Long, String>} Идентификатор страницы -> HTML для найденных страниц
+     */
+    public Map<Long, String> loadAll(Collection<Long> pageIds) {
+        Map<Long, String> result = new HashMap<>();
+        for (PageContent content : pageContentRepository.findAllById(pageIds)) {
+            result.put(content.getPageId(), decompress(content));
+        }
+        return result;
+    }
+
+    static byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String decompress(PageContent content) {
+        return decompress(content.getPageId(), content.getData(), content.getRawLength());
+    }
+
+    static String decompress(long pageId, byte[] data, int rawLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int read = inflater.inflate(raw, length, raw.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            return new String(raw, 0, length, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted content of page " + pageId, e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerSettings;
+import searchengine.config.Site;
+import searchengine.config.SitesList;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Асинхронная загрузка страниц через общий {@link HttpClient}.
+ * <p>
+ * Запросы к одному сайту ограничиваются по частоте собственным {@link TokenBucket},
+ * общее количество одновременных запросов ограничено {@link CrawlerSettings#getMaxConcurrentRequests()}.
+ * Ни ожидание токена, ни ожидание свободного слота не занимают потоков, поэтому
+ * количество запросов в работе не зависит от количества ядер и потоков обхода.
+ * <p>
+ * Тело ответа читается, только если сервер вернул HTML с успешным кодом, и не больше
+ * {@link CrawlerSettings#getMaxBodyBytes()}: загрузка остальных ответов прерывается сразу после заголовков.
+ * <p>
+ * Время ответа публикуется таймером {@code searchengine.crawl.fetch} с тегами сайта и кода ответа
+ * ({@code error}, если ответа нет), заполнение слотов - {@code searchengine.crawl.requests}.
+ */
+@Component
+@RequiredArgsConstructor
+public class PageFetcher {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final CrawlerSettings settings;
+    private final SitesList sites;
+    private final MeterRegistry meterRegistry;
+
+    private HttpClient httpClient;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Double> siteRates = new ConcurrentHashMap<>();
+
+    /**
+     * Запросы, ожидающие свободного слота
+     */
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(settings.getConnectTimeoutMs()))
+                .build();
+        for (Site site : sites.getSites()) {
+            if (site.getRequestsPerSecond() != null) {
+                siteRates.put(hostOf(site.getUrl()), site.getRequestsPerSecond());
+            }
+        }
+        Gauge.builder("searchengine.crawl.requests", this, PageFetcher::inFlight)
+                .description("Запросы в работе")
+                .tag("state", "in-flight")
+                .register(meterRegistry);
+        Gauge.builder("searchengine.crawl.requests", this, PageFetcher::waiting)
+                .description("Запросы, ожидающие свободного слота")
+                .tag("state", "waiting")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Загружает страницу с соблюдением ограничений на частоту запросов к сайту
+     *
+     * @param url Абсолютный адрес страницы
+     * @return {@code CompletableFuture<FetchResult>} Ответ сервера
+     */
+    public CompletableFuture<FetchResult> fetch(String url) {
+        return fetch(url, null, null);
+    }
+
+    /**
+     * Условный запрос: если страница не изменилась с прошлой загрузки, сервер
+     * отвечает {@code 304 Not Modified} без тела
+     *
+     * @param url          Абсолютный адрес страницы
+     * @param etag         {@code ETag} прошлого ответа или {@code null}
+     * @param lastModified {@code Last-Modified} прошлого ответа или {@code null}
+     * @return {@code CompletableFuture<FetchResult>} Ответ сервера
+     */
+    public CompletableFuture<FetchResult> fetch(String url, String etag, String lastModified) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(settings.getRequestTimeoutMs()))
+                .header("User-Agent", settings.getUserAgent())
+                .header("Referer", settings.getReferrer())
+                .GET();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        HttpRequest request = builder.build();
+
+        CompletableFuture<FetchResult> result = new CompletableFuture<>();
+        long delay = bucketFor(uri.getHost()).reserve();
+        CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS)
+                .execute(() -> enqueue(() -> send(request, result)));
+        return result;
+    }
+
+    private void send(HttpRequest request, CompletableFuture<FetchResult> result) {
+        long start = System.nanoTime();
+        try {
+            httpClient.sendAsync(request, this::bodySubscriber)
+                    .whenComplete((response, error) -> {
+                        release();
+                        recordFetch(request, response == null ? "error" : String.valueOf(response.statusCode()),
+                                System.nanoTime() - start);
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(new FetchResult(response.uri().toString(), response.statusCode(),
+                                    response.headers(), response.body()));
+                        }
+                    });
+        } catch (RuntimeException e) {
+            release();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Тело ошибки не нужно и отбрасывается, тело успешного ответа не-HTML не загружается вовсе,
+     * HTML читается до {@link CrawlerSettings#getMaxBodyBytes()}
+     */
+    private HttpResponse.BodySubscriber<byte[]> bodySubscriber(HttpResponse.ResponseInfo info) {
+        if (info.statusCode() < 200 || info.statusCode() >= 300) {
+            return HttpResponse.BodySubscribers.replacing(EMPTY);
+        }
+        return new LimitedBodySubscriber(FetchResult.isHtml(info.headers()) ? settings.getMaxBodyBytes() : 0);
+    }
+
+    private void recordFetch(HttpRequest request, String status, long elapsedNanos) {
+        Timer.builder("searchengine.crawl.fetch")
+                .description("Время загрузки страницы без ожидания ограничения частоты")
+                .tag("site", normalizeHost(request.uri().getHost()))
+                .tag("status", status)
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private int inFlight() {
+        synchronized (waiting) {
+            return inFlight;
+        }
+    }
+
+    private int waiting() {
+        synchronized (waiting) {
+            return waiting.size();
+        }
+    }
+
+    private TokenBucket bucketFor(String host) {
+        return buckets.computeIfAbsent(normalizeHost(host), h -> new TokenBucket(
+                siteRates.getOrDefault(h, settings.getRequestsPerSecond()), settings.getBurst()));
+    }
+
+    private static String hostOf(String url) {
+        return normalizeHost(URI.create(url).getHost());
+    }
+
+    private static String normalizeHost(String host) {
+        return host == null ? "" : host.toLowerCase().replaceFirst("^www\\.", "");
+    }
+
+    private void enqueue(Runnable request) {
+        synchronized (waiting) {
+            waiting.add(request);
+        }
+        startWaiting();
+    }
+
+    private void release() {
+        synchronized (waiting) {
+            inFlight--;
+        }
+        startWaiting();
+    }
+
+    private void startWaiting() {
+        while (true) {
+            Runnable next;
+            synchronized (waiting) {
+                if (inFlight >= settings.getMaxConcurrentRequests() || waiting.isEmpty()) {
+                    return;
+                }
+                inFlight++;
+                next = waiting.poll();
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * Читает тело ответа до {@code limit} байт и отменяет загрузку остатка
+     */
+    private static final class LimitedBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+        private final int limit;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        LimitedBodySubscriber(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (limit == 0) {
+                subscription.cancel();
+                result.complete(EMPTY);
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                byte[] chunk = new byte[Math.min(buffer.remaining(), limit - body.size())];
+                buffer.get(chunk);
+                body.write(chunk, 0, chunk.length);
+            }
+            if (body.size() >= limit) {
+                subscription.cancel();
+                result.complete(body.toByteArray());
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(body.toByteArray());
+        }
+    }
+}
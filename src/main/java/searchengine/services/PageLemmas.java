@@ -0,0 +1,18 @@
+package searchengine.services;
+
+import java.util.Map;
+
+/**
+ * Леммы страницы, подготовленные к записи в БД
+ *
+ * @param pageId Идентификатор страницы
+ * @param siteId Идентификатор сайта страницы
+ * @param lemmas Лемма -> количество повторений на странице
+ * @param text   Текст страницы с положением слов для сниппетов, {@code null} если текст не меняется
+ */
+public record PageLemmas(long pageId, long siteId, Map<String, Long> lemmas, PageTextLayout text) {
+
+    public PageLemmas(long pageId, long siteId, Map<String, Long> lemmas) {
+        this(pageId, siteId, lemmas, null);
+    }
+}
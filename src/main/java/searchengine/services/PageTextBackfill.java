@@ -0,0 +1,80 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Заполнение {@code page_text} для страниц, проиндексированных до появления таблицы.
+ * <p>
+ * После загрузки индекса ({@link IndexLoadedEvent}) в фоновом потоке страницы без текста пачками
+ * по возрастанию id разбираются заново, и сохраняется только их текст: леммы и индекс страниц не меняются.
+ * Страницам без сохраненного HTML записывается пустой текст, чтобы они не выбирались при каждом старте.
+ * Пока страница не обработана, поиск возвращает ее без сниппета.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PageTextBackfill {
+
+    private static final int CHUNK = 200;
+    private static final PageTextLayout EMPTY = new PageTextLayout.Builder().build("");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PageContentStore pageContentStore;
+    private final MorfologyService morfologyService;
+
+    @EventListener(IndexLoadedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void start() {
+        Thread thread = new Thread(this::backfill, "page-text-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void backfill() {
+        long lastId = 0;
+        long extracted = 0;
+        long empty = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT p.id, p.site FROM page p "
+                        + "LEFT JOIN page_text t ON t.page_id = p.id "
+                        + "WHERE t.page_id IS NULL AND p.id > ? ORDER BY p.id LIMIT " + CHUNK, lastId);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                List<Object[]> texts = new ArrayList<>(rows.size());
+                for (Map<String, Object> row : rows) {
+                    long id = ((Number) row.get("id")).longValue();
+                    String html = pageContentStore.load(id);
+                    if (html != null) {
+                        long siteId = ((Number) row.get("site")).longValue();
+                        texts.add(PageTextStore.upsertArgs(id,
+                                morfologyService.analyzePage(id, siteId, Jsoup.parse(html)).text()));
+                        extracted++;
+                    } else {
+                        texts.add(PageTextStore.upsertArgs(id, EMPTY));
+                        empty++;
+                    }
+                    lastId = id;
+                }
+                jdbcTemplate.batchUpdate(PageTextStore.UPSERT, texts);
+            }
+            if (extracted + empty > 0) {
+                log.info("Extracted text of {} pages to page_text, {} pages without stored content", extracted, empty);
+            }
+        } catch (Exception e) {
+            log.error("Page text backfill stopped after page {}", lastId, e);
+        }
+    }
+}
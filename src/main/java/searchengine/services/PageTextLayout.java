@@ -0,0 +1,285 @@
+package searchengine.services;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Текст страницы без разметки и положение в нем каждого проиндексированного слова.
+ * <p>
+ * Слова хранятся как смещения начала и конца в тексте и номер леммы в словаре лемм страницы,
+ * поэтому сниппет строится поиском слов с леммами запроса и вырезанием подстроки,
+ * без разбора HTML. Смещения кодируются разностями в varint ({@link #encodeTokens()}).
+ *
+ * @param text     Текст страницы с пробелами, схлопнутыми до одного
+ * @param lemmas   Словарь лемм страницы, номер леммы - индекс в массиве
+ * @param starts   Смещения начала слов по возрастанию
+ * @param ends     Смещения конца слов
+ * @param lemmaIds Номер леммы каждого слова в {@code lemmas}
+ */
+public record PageTextLayout(String text, String[] lemmas, int[] starts, int[] ends, int[] lemmaIds) {
+
+    private static final String ELLIPSIS = "...";
+
+    /**
+     * Строит сниппет вокруг участка текста, где на отрезке длиной {@code maxLength}
+     * встречается больше всего разных лемм запроса. Совпавшие слова выделяются {@code <b>}.
+     *
+     * @param queryLemmas Леммы запроса
+     * @param maxLength   Максимальная длина текста сниппета
+     * @return {@link String} HTML сниппета, начало текста, если слова запроса не найдены
+     */
+    public String snippet(Collection<String> queryLemmas, int maxLength) {
+        boolean[] wanted = new boolean[lemmas.length];
+        int wantedCount = 0;
+        for (int i = 0; i < lemmas.length; i++) {
+            wanted[i] = queryLemmas.contains(lemmas[i]);
+            if (wanted[i]) {
+                wantedCount++;
+            }
+        }
+        int[] matches = new int[starts.length];
+        int matchCount = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (wanted[lemmaIds[i]]) {
+                matches[matchCount++] = i;
+            }
+        }
+        if (matchCount == 0) {
+            int end = Math.min(text.length(), maxLength);
+            return escape(text, 0, end) + (end < text.length() ? ELLIPSIS : "");
+        }
+
+        int bestFirst = 0;
+        int bestLast = 0;
+        int bestDistinct = 0;
+        int[] seen = new int[lemmas.length];
+        for (int first = 0; first < matchCount && bestDistinct < wantedCount; first++) {
+            int from = starts[matches[first]];
+            int distinct = 0;
+            int last = first;
+            for (int j = first; j < matchCount && ends[matches[j]] - from <= maxLength; j++) {
+                int lemma = lemmaIds[matches[j]];
+                if (seen[lemma] != first + 1) {
+                    seen[lemma] = first + 1;
+                    distinct++;
+                }
+                last = j;
+            }
+            if (distinct > bestDistinct) {
+                bestDistinct = distinct;
+                bestFirst = first;
+                bestLast = last;
+            }
+        }
+
+        int matchFrom = starts[matches[bestFirst]];
+        int matchTo = Math.max(ends[matches[bestFirst]], ends[matches[bestLast]]);
+        int padding = Math.max(0, (maxLength - (matchTo - matchFrom)) / 2);
+        int from = wordStart(Math.max(0, matchFrom - padding), matchFrom);
+        int to = wordEnd(Math.min(text.length(), matchTo + padding), matchTo);
+
+        StringBuilder snippet = new StringBuilder(to - from + 32);
+        if (from > 0) {
+            snippet.append(ELLIPSIS);
+        }
+        int position = from;
+        for (int i = firstTokenAt(from); i < starts.length && starts[i] < to; i++) {
+            if (!wanted[lemmaIds[i]] || ends[i] > to) {
+                continue;
+            }
+            snippet.append(escape(text, position, starts[i]))
+                    .append("<b>").append(escape(text, starts[i], ends[i])).append("</b>");
+            position = ends[i];
+        }
+        snippet.append(escape(text, position, to));
+        if (to < text.length()) {
+            snippet.append(ELLIPSIS);
+        }
+        return snippet.toString();
+    }
+
+    /**
+     * @return {@code byte[]} Слова страницы: для каждого слова разность начала и конца предыдущего слова,
+     * длина и номер леммы в varint
+     */
+    public byte[] encodeTokens() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(starts.length * 3);
+        int previousEnd = 0;
+        for (int i = 0; i < starts.length; i++) {
+            writeVarint(out, starts[i] - previousEnd);
+            writeVarint(out, ends[i] - starts[i]);
+            writeVarint(out, lemmaIds[i]);
+            previousEnd = ends[i];
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return {@link String} Словарь лемм страницы через пробел
+     */
+    public String encodeLemmas() {
+        return String.join(" ", lemmas);
+    }
+
+    /**
+     * Восстанавливает разметку из сохраненного вида
+     *
+     * @param text   Текст страницы
+     * @param lemmas Результат {@link #encodeLemmas()}
+     * @param tokens Результат {@link #encodeTokens()}
+     * @return {@link PageTextLayout}
+     */
+    public static PageTextLayout decode(String text, String lemmas, byte[] tokens) {
+        String[] dictionary = lemmas.isEmpty() ? new String[0] : lemmas.split(" ");
+        int capacity = tokens.length / 3 + 1;
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        int[] lemmaIds = new int[capacity];
+        int count = 0;
+        int previousEnd = 0;
+        int[] position = {0};
+        while (position[0] < tokens.length) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                lemmaIds = Arrays.copyOf(lemmaIds, count * 2);
+            }
+            starts[count] = previousEnd + readVarint(tokens, position);
+            ends[count] = starts[count] + readVarint(tokens, position);
+            lemmaIds[count] = readVarint(tokens, position);
+            previousEnd = ends[count];
+            count++;
+        }
+        return new PageTextLayout(text, dictionary,
+                Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), Arrays.copyOf(lemmaIds, count));
+    }
+
+    /**
+     * @return {@code Map<String, int[]>} Лемма -> номера ее слов среди проиндексированных слов страницы
+     * по возрастанию. Служебные слова и слова вне словарей не нумеруются, так же как при разборе запроса
+     */
+    public Map<String, int[]> positions() {
+        int[] counts = new int[lemmas.length];
+        for (int id : lemmaIds) {
+            counts[id]++;
+        }
+        int[][] positions = new int[lemmas.length][];
+        for (int i = 0; i < lemmas.length; i++) {
+            positions[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < lemmaIds.length; i++) {
+            int id = lemmaIds[i];
+            positions[id][counts[id]++] = i;
+        }
+        Map<String, int[]> result = new HashMap<>(lemmas.length * 2);
+        for (int i = 0; i < lemmas.length; i++) {
+            result.put(lemmas[i], positions[i]);
+        }
+        return result;
+    }
+
+    private int firstTokenAt(int offset) {
+        int index = Arrays.binarySearch(starts, offset);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Сдвигает начало сниппета к началу слова, не заходя дальше {@code limit}
+     */
+    private int wordStart(int offset, int limit) {
+        while (offset > 0 && offset < limit && text.charAt(offset - 1) != ' ') {
+            offset++;
+        }
+        return offset;
+    }
+
+    /**
+     * Сдвигает конец сниппета к концу слова, не заходя раньше {@code limit}
+     */
+    private int wordEnd(int offset, int limit) {
+        while (offset < text.length() && offset > limit && text.charAt(offset) != ' ') {
+            offset--;
+        }
+        return offset;
+    }
+
+    private static String escape(String text, int from, int to) {
+        StringBuilder out = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                default -> out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Собирает разметку по мере разбора текста страницы
+     */
+    public static class Builder {
+        private final Map<String, Integer> lemmaIds = new HashMap<>();
+        private final List<String> lemmas = new ArrayList<>();
+        private int[] starts = new int[256];
+        private int[] ends = new int[256];
+        private int[] ids = new int[256];
+        private int size;
+
+        /**
+         * @param lemma Лемма слова
+         * @param start Смещение начала слова в тексте
+         * @param end   Смещение конца слова в тексте
+         */
+        public void add(String lemma, int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            Integer id = lemmaIds.get(lemma);
+            if (id == null) {
+                id = lemmas.size();
+                lemmaIds.put(lemma, id);
+                lemmas.add(lemma);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            ids[size] = id;
+            size++;
+        }
+
+        public PageTextLayout build(String text) {
+            return new PageTextLayout(text, lemmas.toArray(String[]::new),
+                    Arrays.copyOf(starts, size), Arrays.copyOf(ends, size), Arrays.copyOf(ids, size));
+        }
+    }
+}
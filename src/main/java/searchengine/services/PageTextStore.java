@@ -0,0 +1,51 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.model.PageText;
+import searchengine.repository.PageTextRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Хранилище текста страниц для сниппетов в таблице {@code page_text}.
+ * <p>
+ * Строки пишет {@link LemmaIndexWriter} в той же транзакции, что и индексы страницы,
+ * поэтому текст всегда соответствует проиндексированным леммам. Текст сжимается так же,
+ * как HTML в {@link PageContentStore}.
+ */
+@Component
+@RequiredArgsConstructor
+public class PageTextStore {
+
+    static final String UPSERT = "INSERT INTO page_text (page_id, raw_length, text, lemmas, tokens) "
+            + "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE raw_length = VALUES(raw_length), "
+            + "text = VALUES(text), lemmas = VALUES(lemmas), tokens = VALUES(tokens)";
+
+    private final PageTextRepository pageTextRepository;
+
+    /**
+     * @param pageIds Идентификаторы страниц
+     * @return {@code Map<Long, PageTextLayout>} Идентификатор страницы -> текст для страниц, у которых он сохранен
+     */
+    public Map<Long, PageTextLayout> loadAll(Collection<Long> pageIds) {
+        Map<Long, PageTextLayout> result = new HashMap<>();
+        for (PageText row : pageTextRepository.findAllById(pageIds)) {
+            String text = PageContentStore.decompress(row.getPageId(), row.getText(), row.getRawLength());
+            result.put(row.getPageId(), PageTextLayout.decode(text, row.getLemmas(), row.getTokens()));
+        }
+        return result;
+    }
+
+    /**
+     * @return {@code Object[]} Параметры запроса {@link #UPSERT} для страницы
+     */
+    static Object[] upsertArgs(long pageId, PageTextLayout layout) {
+        byte[] raw = layout.text().getBytes(StandardCharsets.UTF_8);
+        return new Object[]{pageId, raw.length, PageContentStore.compress(raw),
+                layout.encodeLemmas(), layout.encodeTokens()};
+    }
+}
@@ -1,189 +1,224 @@
 package searchengine.services;
 
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.jsoup.Connection;
+import lombok.extern.slf4j.Slf4j;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.select.Elements;
 import org.springframework.transaction.annotation.Transactional;
 import searchengine.model.PageModel;
 import searchengine.model.SiteModel;
 import searchengine.model.SiteStatus;
-import searchengine.repository.IndexRepository;
-import searchengine.repository.LemmaRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.RecursiveTask;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
- * Класс {@link PagesFinder} отвечает за рекурсивный обход страниц сайта,
- * нахождение новых uri и последующей индексацией содержимого страниц
+ * Класс {@link PagesFinder} загружает страницы одного сайта, сохраняет их содержимое,
+ * передает на индексацию лемм и находит на них новые uri сайта.
+ * Порядок обхода страниц определяет {@link CrawlScheduler}.
  */
-public class PagesFinder extends RecursiveTask<Void> {
+@Slf4j
+public class PagesFinder {
 
-    private final boolean isRootTask;
     private final PageRepository pageRepository;
     private final SiteRepository siteRepository;
 
     private final String SITE_ORIGINAL;
-    private final SiteModel siteModel;
-    private int pageCode;
-    private String context;
-    private final String url;
+    private final long siteId;
 
-    private HashSet<String> hashLinks;
+    private final IndexingPipeline indexingPipeline;
+    private final PageContentStore pageContentStore;
+    private final PageFetcher pageFetcher;
+    private final SearchResultCache searchResultCache;
+    private final SiteStatisticsCounters statisticsCounters;
     /**
-     * {@link ConcurrentHashMap}, в котором хранятся проверенные всеми экземплярами {@link PagesFinder} ссылки со страниц
+     * Использовать ли условные запросы и пропускать ли неизменившиеся страницы
      */
-    private static ConcurrentHashMap<String, String> checkedLinks;
+    private final boolean incremental;
 
-    private final LuceneMorphology luceneMorphEn;
-    private final LuceneMorphology luceneMorphRu;
-    private final IndexRepository indexRepository;
-    private final LemmaRepository lemmaRepository;
-
-
-    private void init() {
-        checkedLinks = new ConcurrentHashMap<>();
-        hashLinks = getHashLinks();
-    }
-
-    public PagesFinder(String url, PageRepository pageRepository,
-                       SiteRepository siteRepository, SiteModel siteModel, boolean isRootTask,
-                       LuceneMorphology luceneMorphEn, LuceneMorphology luceneMorphRu,
-                       IndexRepository indexRepository, LemmaRepository lemmaRepository) {
+    public PagesFinder(PageRepository pageRepository, SiteRepository siteRepository, SiteModel siteModel,
+                       IndexingPipeline indexingPipeline, PageContentStore pageContentStore,
+                       PageFetcher pageFetcher, SearchResultCache searchResultCache,
+                       SiteStatisticsCounters statisticsCounters, boolean incremental) {
         this.pageRepository = pageRepository;
         this.siteRepository = siteRepository;
-        this.url = url;
-        this.isRootTask = isRootTask;
-        this.siteModel = siteModel;
         SITE_ORIGINAL = siteModel.getUrl();
-
-        this.luceneMorphEn = luceneMorphEn;
-        this.luceneMorphRu = luceneMorphRu;
-        this.indexRepository = indexRepository;
-        this.lemmaRepository = lemmaRepository;
+        siteId = siteModel.getId();
+
+        this.indexingPipeline = indexingPipeline;
+        this.pageContentStore = pageContentStore;
+        this.pageFetcher = pageFetcher;
+        this.searchResultCache = searchResultCache;
+        this.statisticsCounters = statisticsCounters;
+        this.incremental = incremental;
     }
 
     /**
-     * Проверяет является ли переданная ссылка в {@link PagesFinder} принадлежащей материнскому сайту,
-     * является ли ссылкой вообще и была ли уже рассмотрена данная ссылка в текущей сессии потоков
+     * Загружает и сохраняет страницу, ссылки на другие сайты и на якоря внутри страницы отбрасываются.
+     * При повторном обходе страница не лемматизируется заново, если сервер ответил
+     * {@code 304 Not Modified} или содержимое не изменилось, ссылки в этом случае берутся из сохраненной копии.
+     * Если сохраненной копии нет, страница загружается заново без условных заголовков.
+     * <p>
+     * Ожидание ответа не занимает потоков: обращения к БД, разбор и сохранение страницы выполняются
+     * в {@code executor} после получения ответа.
      *
-     * @return {@code HashSet<String>} Список уникальных ссылок, полученных с просмотренной страницы
+     * @param url      Абсолютный адрес страницы
+     * @param executor Пул для обращений к БД и разбора страницы
+     * @return {@code CompletableFuture<List<String>>} Уникальные нормализованные ссылки на страницы этого же сайта,
+     * пустой список, если страницу не удалось загрузить или обработать
      */
-    private HashSet<String> getHashLinks() {
-        HashSet<String> hashLinks = new HashSet<>();
-        if (IndexingServiceImpl.getStopFlag().get()) {
-            return hashLinks;
-        }
+    public CompletableFuture<List<String>> processPage(String url, Executor executor) {
+        long fetchStart = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> incremental ? pageRepository.findByPath(url) : null, executor)
+                .thenCompose(stored -> fetch(url, stored, executor)
+                        .thenApplyAsync(fetched -> {
+                            indexingPipeline.fetchMetrics().record(1, System.nanoTime() - fetchStart);
+                            return parse(url, stored, fetched);
+                        }, executor))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    indexingPipeline.fetchMetrics().recordFailure();
+                    log.warn("Failed to process page {}: {}", url, cause.toString());
+                    return List.of();
+                });
+    }
 
-        try {
-            Connection.Response response;
-            if (checkedLinks.contains(url) || checkedLinks.contains(SITE_ORIGINAL.concat(url))) {
-                throw new IllegalArgumentException("checked link");
-            } else {
-                response = Jsoup.connect(
-                                !url.matches("http[s]*://[^,\\s]+") ? SITE_ORIGINAL.concat(url) : url)
-                        .userAgent("Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) Gecko/20070725 Firefox/2.0.0.6")
-                        .referrer("http://www.google.com")
-                        .execute();
-            }
-            checkedLinks.put(url, url);
-            pageCode = response.statusCode();
-
-            Document page = response.parse();
-            context = page.html();
-            setPageModel();
-
-            Thread.sleep((int) (Math.random() * 50 + 100));
-            Elements links = page.select("a");
-            hashLinks.addAll(links.stream()
-                    .map(p -> p.attr("href"))
-                    .distinct()
-                    .filter(p -> !p.matches("http[s]*://[^,\\s]+") || !p.contains("/"))
-//                    .filter(p -> !checkedLinks.contains(p))
-                    .toList());
-        } catch (Exception e) {
-            checkedLinks.put(url, url);
-            e.printStackTrace();
+    /**
+     * Загружает страницу, при повторном обходе - условным запросом. Сохраненная копия читается в {@code executor}
+     */
+    private CompletableFuture<Fetched> fetch(String url, PageModel stored, Executor executor) {
+        if (stored == null || stored.getContentHash() == null) {
+            return pageFetcher.fetch(url).thenApply(response -> new Fetched(response, null, false));
         }
-        return hashLinks;
+        return pageFetcher.fetch(url, stored.getEtag(), stored.getLastModified())
+                .thenComposeAsync(response -> {
+                    if (!response.isNotModified()) {
+                        return CompletableFuture.completedFuture(new Fetched(response, null, true));
+                    }
+                    String storedContent = pageContentStore.load(stored.getId());
+                    if (storedContent != null) {
+                        return CompletableFuture.completedFuture(new Fetched(response, storedContent, true));
+                    }
+                    // сохраненной копии нет, без нее не получить ссылки страницы
+                    return pageFetcher.fetch(url).thenApply(fresh -> new Fetched(fresh, null, false));
+                }, executor);
     }
 
     /**
-     * Создается дочерний {@link PagesFinder}, каждый из которых будет рассматривать одну переданную ссылку
+     * Разбирает и сохраняет загруженную страницу
      *
-     * @param linkList Список уникальных ссылок, полученных при парсинге страницы в {@link PagesFinder#getHashLinks()}
-     * @return {@code List<PagesFinder>} Список экземпляров  {@link PagesFinder}
+     * @return {@code List<String>} Уникальные нормализованные ссылки на страницы этого же сайта
      */
-    private List<PagesFinder> createSubtasks(HashSet<String> linkList) {
-        return linkList.stream()
-                .map(link -> new PagesFinder(link, pageRepository, siteRepository, siteModel, false,
-                        luceneMorphEn, luceneMorphRu, indexRepository, lemmaRepository))
-                .toList();
-    }
-
-    @Override
-    protected Void compute() {
-        if (IndexingServiceImpl.getStopFlag().get()) {
-            return null;
-        }
-        init();
-        List<PagesFinder> taskList = createSubtasks(hashLinks);
-        for (PagesFinder finder : taskList) {
-            if(IndexingServiceImpl.getStopFlag().get()){
-                break;
+    private List<String> parse(String url, PageModel stored, Fetched fetched) {
+        long parseStart = System.nanoTime();
+        FetchResult response = fetched.response();
+        Document page;
+        if (fetched.storedContent() != null) {
+            page = Jsoup.parse(fetched.storedContent(), url);
+        } else if (!response.isSuccessful() || !response.isHtml()) {
+            throw new UncheckedIOException(new IOException("HTTP " + response.statusCode() + " " + response.url()));
+        } else {
+            try {
+                page = response.parse();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            finder.fork();
-        }
-        for (PagesFinder task : taskList) {
-            if(IndexingServiceImpl.getStopFlag().get()){
-                break;
+            String contentHash = response.contentHash();
+            if (fetched.conditional() && contentHash.equals(stored.getContentHash())) {
+                updateValidators(stored, response);
+            } else {
+                setPageModel(stored != null ? stored : pageRepository.findByPath(url), url, response, page, contentHash);
             }
-            task.join();
         }
-        if (isRootTask && IndexingServiceImpl.getStopFlag().get()) {
-            SiteModel site = siteRepository.findByUrl(url);
+
+        List<String> links = page.select("a[href]").stream()
+                .map(link -> UrlNormalizer.normalize(link.absUrl("href")))
+                .filter(link -> link != null && UrlNormalizer.isSameSite(SITE_ORIGINAL, link))
+                .distinct()
+                .toList();
+        indexingPipeline.parseMetrics().record(1, System.nanoTime() - parseStart);
+        return links;
+    }
+
+    /**
+     * Завершает обход сайта: дожидается записи лемм всех найденных страниц, обновляет статус сайта
+     * и сбрасывает кэш результатов поиска
+     *
+     * @param error Причина, по которой обход прерван, или {@code null}, если обход завершен
+     */
+    public void finish(String error) {
+        awaitLemmasFlushed();
+        SiteModel site = siteRepository.findByUrl(SITE_ORIGINAL);
+        if (error != null) {
             site.setStatus(SiteStatus.FAILED);
-            site.setLastError("interrupted by user");
-            siteRepository.save(site);
-        } else if (isRootTask && !IndexingServiceImpl.getStopFlag().get()) {
-            SiteModel site = siteRepository.findByUrl(url);
+            site.setLastError(error);
+        } else {
             site.setStatus(SiteStatus.INDEXED);
             site.setLastError("");
-            siteRepository.save(site);
         }
-        return null;
+        site.setStatusTime(Instant.now());
+        siteRepository.save(site);
+        searchResultCache.invalidate();
+    }
+
+    /**
+     * Статус сайта меняется только после записи лемм всех найденных страниц сайта
+     */
+    private void awaitLemmasFlushed() {
+        try {
+            indexingPipeline.awaitFlushed(siteId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Transactional
-    private void setPageModel() {
-        PageModel page = pageRepository.findByPath(!url.matches("http[s]*://[^,\\s]+") ? SITE_ORIGINAL.concat(url) : url);
-        if (page == null) {
+    private void setPageModel(PageModel page, String url, FetchResult response, Document document, String contentHash) {
+        boolean added = page == null;
+        if (added) {
             page = new PageModel();
-            page.setCode(pageCode == 0 ? 404 : pageCode);
-            page.setPath(!url.matches("http[s]*://[^,\\s]+") ? SITE_ORIGINAL.concat(url) : url);
-            page.setContent(context);
+            page.setPath(url);
             SiteModel site = siteRepository.findByUrl(SITE_ORIGINAL);
             page.setSite(site);
-            page = pageRepository.saveAndFlush(page);
-        } else {
-            page.setContent(context);
-            page.setCode(pageCode == 0 ? 404 : pageCode);
-            page = pageRepository.saveAndFlush(page);
         }
-        indexingLemmas(page);
+        PageContentStore.fillMetadata(page, document);
+        page.setCode(response.statusCode());
+        page.setEtag(response.etag());
+        page.setLastModified(response.lastModified());
+        page.setContentHash(contentHash);
+        page = pageRepository.saveAndFlush(page);
+        if (added) {
+            statisticsCounters.pageAdded(page.getSite().getId());
+        }
+        pageContentStore.save(page.getId(), page.getSite().getId(), document.html());
+        indexingPipeline.submit(page, document);
     }
 
-    @Transactional
-    private void indexingLemmas(PageModel targetPage) {
-        new MorfologyService(luceneMorphEn, luceneMorphRu, indexRepository,
-                lemmaRepository, pageRepository, targetPage).indexPage(targetPage);
+    /**
+     * Страница не изменилась, обновляются только заголовки для следующего условного запроса
+     */
+    private void updateValidators(PageModel page, FetchResult response) {
+        String etag = response.etag();
+        String lastModified = response.lastModified();
+        if (!Objects.equals(etag, page.getEtag()) || !Objects.equals(lastModified, page.getLastModified())) {
+            page.setEtag(etag);
+            page.setLastModified(lastModified);
+            pageRepository.save(page);
+        }
     }
-}
-
 
+    /**
+     * Ответ сервера и сохраненная копия страницы, если сервер ответил {@code 304 Not Modified}
+     *
+     * @param conditional Запрос был условным
+     */
+    private record Fetched(FetchResult response, String storedContent, boolean conditional) {
+    }
+}
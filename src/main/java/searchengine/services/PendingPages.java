@@ -0,0 +1,59 @@
+package searchengine.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Страницы, переданные на этап конвейера и еще не обработанные, отдельно по каждому сайту.
+ * Завершение обхода одного сайта ждет только свои страницы, а не страницы других сайтов.
+ */
+final class PendingPages {
+
+    private final ConcurrentHashMap<Long, AtomicLong> sites = new ConcurrentHashMap<>();
+
+    void add(long siteId) {
+        sites.computeIfAbsent(siteId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    synchronized void done(long siteId) {
+        AtomicLong count = sites.get(siteId);
+        if (count != null) {
+            count.decrementAndGet();
+        }
+        notifyAll();
+    }
+
+    long count(long siteId) {
+        AtomicLong count = sites.get(siteId);
+        return count == null ? 0 : count.get();
+    }
+
+    long total() {
+        return sites.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     * Ожидает обработки всех страниц сайта
+     *
+     * @param siteId  Сайт
+     * @param checkMs Как часто проверять счетчик, если уведомление пропущено
+     * @throws InterruptedException если поток был прерван во время ожидания
+     */
+    synchronized void await(long siteId, long checkMs) throws InterruptedException {
+        while (count(siteId) > 0) {
+            wait(checkMs);
+        }
+    }
+
+    /**
+     * Ожидает обработки страниц всех сайтов
+     *
+     * @param checkMs Как часто проверять счетчик, если уведомление пропущено
+     * @throws InterruptedException если поток был прерван во время ожидания
+     */
+    synchronized void awaitAll(long checkMs) throws InterruptedException {
+        while (total() > 0) {
+            wait(checkMs);
+        }
+    }
+}
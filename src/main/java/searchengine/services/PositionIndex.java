@@ -0,0 +1,222 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * Позиционный индекс: номера слов каждой леммы на странице в столбце {@code indexes.positions}.
+ * <p>
+ * Позиции пишет {@link LemmaIndexWriter} вместе со строками {@code indexes}, в БД они хранятся
+ * разностями соседних позиций в varint. В память позиции не загружаются: при поиске они читаются
+ * только для найденных страниц и только для лемм запроса - чтобы проверить фразы в кавычках
+ * и пересчитать релевантность лучших страниц с учетом близости слов.
+ * <p>
+ * Страницы, проиндексированные до появления позиций, считаются совпавшими с фразой,
+ * но не получают повышения за близость слов.
+ */
+@Component
+@RequiredArgsConstructor
+public class PositionIndex {
+
+    private static final int PAGES_PER_QUERY = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SearchSettings settings;
+
+    public boolean isEnabled() {
+        return settings.getPositions().isEnabled();
+    }
+
+    /**
+     * @param resultSize Сколько страниц нужно вернуть
+     * @param lemmas     Леммы запроса
+     * @return {@code int} Сколько лучших страниц нужно отобрать до пересчета близости слов: не меньше
+     * {@code rerankDepth}, чтобы близость слов могла поднять страницы из-за границы выдачи
+     */
+    public int candidates(int resultSize, List<String> lemmas) {
+        if (!isEnabled() || lemmas.size() < 2) {
+            return resultSize;
+        }
+        return Math.max(resultSize, settings.getPositions().getRerankDepth());
+    }
+
+    /**
+     * Оставляет страницы, на которых встречаются все фразы запроса
+     *
+     * @param pages   Найденные страницы
+     * @param phrases Фразы запроса
+     * @return {@code long[]} Страницы с фразами в исходном порядке
+     */
+    public long[] matchPhrases(long[] pages, List<List<SearchQuery.PhraseTerm>> phrases) {
+        if (!isEnabled() || phrases.isEmpty() || pages.length == 0) {
+            return pages;
+        }
+        Set<String> lemmas = new HashSet<>();
+        phrases.forEach(phrase -> phrase.forEach(term -> lemmas.add(term.lemma())));
+        Map<Long, Map<String, int[]>> positions = load(lemmas, pages);
+        return Arrays.stream(pages)
+                .filter(page -> {
+                    Map<String, int[]> pagePositions = positions.get(page);
+                    return pagePositions != null
+                            && phrases.stream().allMatch(phrase -> containsPhrase(pagePositions, phrase));
+                })
+                .toArray();
+    }
+
+    /**
+     * Пересчитывает релевантность не более {@code rerankDepth} лучших отобранных страниц с учетом близости слов
+     * запроса. Остальные страницы сохраняют исходную релевантность: повышение за близость ее только увеличивает,
+     * поэтому они остаются ниже пересчитанных в исходном порядке.
+     *
+     * @param top        Отобранные страницы, размер отбора - {@link #candidates}
+     * @param lemmas     Леммы запроса
+     * @param resultSize Сколько страниц нужно вернуть
+     * @return {@link TopKCollector} Новый отбор из {@code resultSize} страниц или {@code top}, если пересчет не нужен
+     */
+    public TopKCollector rerank(TopKCollector top, List<String> lemmas, int resultSize) {
+        if (!isEnabled() || lemmas.size() < 2) {
+            return top;
+        }
+        int count = top.sort();
+        int depth = Math.min(count, settings.getPositions().getRerankDepth());
+        long[] pages = new long[depth];
+        for (int i = 0; i < depth; i++) {
+            pages[i] = top.pageIdAt(i);
+        }
+        Map<Long, Map<String, int[]>> positions = load(lemmas, pages);
+        double weight = settings.getPositions().getProximityWeight();
+        TopKCollector reranked = new TopKCollector(resultSize);
+        for (int i = 0; i < depth; i++) {
+            double proximity = proximity(positions.get(pages[i]), lemmas);
+            reranked.collect(pages[i], top.scoreAt(i) * (1 + weight * proximity));
+        }
+        for (int i = depth; i < count; i++) {
+            reranked.collect(top.pageIdAt(i), top.scoreAt(i));
+        }
+        return reranked;
+    }
+
+    /**
+     * @return {@code byte[]} Позиции по возрастанию, разности соседних позиций в varint
+     */
+    public static byte[] encode(int[] positions) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(positions.length + 4);
+        int previous = 0;
+        for (int position : positions) {
+            PageTextLayout.writeVarint(out, position - previous);
+            previous = position;
+        }
+        return out.toByteArray();
+    }
+
+    public static int[] decode(byte[] data) {
+        int[] positions = new int[data.length];
+        int count = 0;
+        int previous = 0;
+        int[] offset = {0};
+        while (offset[0] < data.length) {
+            previous += PageTextLayout.readVarint(data, offset);
+            positions[count++] = previous;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * @return {@code Map<Long, Map<String, int[]>>} Страница -> лемма -> позиции,
+     * {@code null} вместо позиций, если для строки они не сохранялись
+     */
+    private Map<Long, Map<String, int[]>> load(Collection<String> lemmas, long[] pages) {
+        Map<Long, Map<String, int[]>> result = new HashMap<>();
+        String lemmaPlaceholders = String.join(", ", Collections.nCopies(lemmas.size(), "?"));
+        for (int from = 0; from < pages.length; from += PAGES_PER_QUERY) {
+            int to = Math.min(pages.length, from + PAGES_PER_QUERY);
+            List<Object> args = new ArrayList<>(lemmas);
+            for (int i = from; i < to; i++) {
+                args.add(pages[i]);
+            }
+            jdbcTemplate.query("SELECT page, lemma, positions FROM indexes WHERE lemma IN (" + lemmaPlaceholders
+                            + ") AND page IN (" + String.join(", ", Collections.nCopies(to - from, "?")) + ")",
+                    (RowCallbackHandler) rs -> {
+                        byte[] data = rs.getBytes(3);
+                        result.computeIfAbsent(rs.getLong(1), page -> new HashMap<>())
+                                .put(rs.getString(2), data == null ? null : decode(data));
+                    },
+                    args.toArray());
+        }
+        return result;
+    }
+
+    private static boolean containsPhrase(Map<String, int[]> positions, List<SearchQuery.PhraseTerm> phrase) {
+        int[][] lists = new int[phrase.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            String lemma = phrase.get(i).lemma();
+            if (!positions.containsKey(lemma)) {
+                return false;
+            }
+            lists[i] = positions.get(lemma);
+            if (lists[i] == null) {
+                return true;
+            }
+        }
+        for (int position : lists[0]) {
+            int start = position - phrase.get(0).offset();
+            boolean found = true;
+            for (int i = 1; i < lists.length && found; i++) {
+                found = Arrays.binarySearch(lists[i], start + phrase.get(i).offset()) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Близость слов запроса на странице: {@code n / span}, где {@code span} - длина наименьшего
+     * окна, содержащего все {@code n} лемм. Равна 1, если леммы идут подряд.
+     */
+    private static double proximity(Map<String, int[]> positions, List<String> lemmas) {
+        if (positions == null) {
+            return 0;
+        }
+        int total = 0;
+        for (String lemma : lemmas) {
+            int[] list = positions.get(lemma);
+            if (list == null || list.length == 0) {
+                return 0;
+            }
+            total += list.length;
+        }
+        long[] merged = new long[total];
+        int size = 0;
+        for (int i = 0; i < lemmas.size(); i++) {
+            for (int position : positions.get(lemmas.get(i))) {
+                merged[size++] = ((long) position << 32) | i;
+            }
+        }
+        Arrays.sort(merged);
+
+        int[] inWindow = new int[lemmas.size()];
+        int covered = 0;
+        int bestSpan = Integer.MAX_VALUE;
+        for (int left = 0, right = 0; right < merged.length; right++) {
+            if (inWindow[(int) merged[right]]++ == 0) {
+                covered++;
+            }
+            while (covered == lemmas.size()) {
+                int span = (int) (merged[right] >>> 32) - (int) (merged[left] >>> 32) + 1;
+                bestSpan = Math.min(bestSpan, span);
+                if (--inWindow[(int) merged[left++]] == 0) {
+                    covered--;
+                }
+            }
+        }
+        return (double) lemmas.size() / bestSpan;
+    }
+}
@@ -0,0 +1,27 @@
+package searchengine.services;
+
+import org.springframework.stereotype.Component;
+import searchengine.config.ScoringMode;
+
+/**
+ * Релевантность как сумма рангов лемм запроса на странице
+ */
+@Component
+public class RankSumScorer implements RelevanceScorer {
+
+    @Override
+    public ScoringMode mode() {
+        return ScoringMode.RANK_SUM;
+    }
+
+    @Override
+    public double[] score(ScoringInput input) {
+        double[] scores = new double[input.pages().length];
+        for (int[] column : input.termFrequencies()) {
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] += column[i];
+            }
+        }
+        return scores;
+    }
+}
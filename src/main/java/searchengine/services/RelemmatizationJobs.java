@@ -0,0 +1,315 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.PipelineSettings;
+import searchengine.dto.statistics.RelemmatizationStatistics;
+import searchengine.model.IndexingState;
+import searchengine.model.SiteModel;
+import searchengine.repository.IndexingStateRepository;
+import searchengine.repository.PageKey;
+import searchengine.repository.PageRepository;
+import searchengine.repository.SiteRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Переиндексация лемм всех страниц сайта по сохраненному содержимому.
+ * <p>
+ * Каждый сайт обрабатывает одна задача в пуле из {@link PipelineSettings#getRelemmatizeThreads()} потоков.
+ * Задача читает страницы пачками по возрастанию id ({@link PageRepository#findKeysAfter}), загружает их
+ * содержимое одним запросом и передает страницы в {@link IndexingPipeline}: лемматизацию выполняет его
+ * ограниченный пул, а при заполнении очереди задача ждет, поэтому в памяти не больше одной пачки на сайт.
+ * <p>
+ * После записи каждой пачки id последней страницы сохраняется в {@link IndexingState}, и после перезапуска
+ * приложения незавершенные задачи продолжаются с этого места. Если часть пачки не удалось лемматизировать
+ * или записать (конвейер сообщает об ошибке каждой страницы, переданной задачей), прогресс не сохраняется,
+ * и задача останавливается с ошибкой. Ошибка сохраняется вместе с прогрессом: после перезапуска приложения
+ * такая задача не продолжается сама, а явный запуск ({@link #start}) начнет с этой пачки. Отмена
+ * ({@link #cancelAll()}) проверяется перед каждой страницей и удаляет сохраненный прогресс.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RelemmatizationJobs {
+
+    private static final String STATE_PREFIX = "relemmatize:";
+    /**
+     * Разделитель id последней записанной страницы и ошибки в значении состояния
+     */
+    private static final String ERROR_SEPARATOR = ";";
+    private static final int STATE_VALUE_LENGTH = 255;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SiteRepository siteRepository;
+    private final PageRepository pageRepository;
+    private final IndexingStateRepository indexingStateRepository;
+    private final PageContentStore pageContentStore;
+    private final IndexingPipeline indexingPipeline;
+    private final SearchResultCache searchResultCache;
+    private final IndexSegmentStore indexSegmentStore;
+    private final PipelineSettings settings;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Последняя задача каждого сайта, нужна для статистики
+     */
+    private final Map<Long, Job> jobs = new LinkedHashMap<>();
+    private ExecutorService workers;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(settings.getRelemmatizeThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "relemmatizer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        new ExecutorServiceMetrics(workers, "relemmatize", Tags.empty()).bindTo(meterRegistry);
+    }
+
+    /**
+     * Продолжает задачи, прерванные остановкой приложения, после загрузки индекса.
+     * Задачи, остановленные с ошибкой, не продолжаются, а только попадают в статистику
+     */
+    @EventListener(IndexLoadedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void resume() {
+        for (IndexingState state : indexingStateRepository.findAll()) {
+            if (!state.getName().startsWith(STATE_PREFIX)) {
+                continue;
+            }
+            long siteId = Long.parseLong(state.getName().substring(STATE_PREFIX.length()));
+            SiteModel site = siteRepository.findById(siteId).orElse(null);
+            if (site == null) {
+                indexingStateRepository.delete(state);
+                continue;
+            }
+            String[] value = state.getValue().split(ERROR_SEPARATOR, 2);
+            long lastPageId = Long.parseLong(value[0]);
+            if (value.length > 1) {
+                log.info("Not resuming failed lemma reindexing of {} after page {}: {}",
+                        site.getUrl(), lastPageId, value[1]);
+                registerFailed(site, lastPageId, value[1]);
+                continue;
+            }
+            log.info("Resuming lemma reindexing of {} after page {}", site.getUrl(), lastPageId);
+            launch(site, lastPageId);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        workers.shutdownNow();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Запускает переиндексацию лемм сайта с первой страницы, а если прошлая задача сайта
+     * остановлена с ошибкой - с пачки, на которой она остановилась
+     *
+     * @param site Сайт
+     * @return {@code boolean} {@code false}, если переиндексация сайта уже выполняется
+     */
+    public boolean start(SiteModel site) {
+        long afterPageId = indexingStateRepository.findById(stateName(site.getId()))
+                .map(state -> state.getValue().split(ERROR_SEPARATOR, 2))
+                .filter(value -> value.length > 1)
+                .map(value -> Long.parseLong(value[0]))
+                .orElse(0L);
+        return launch(site, afterPageId);
+    }
+
+    /**
+     * Отменяет все выполняющиеся задачи. Страницы, уже переданные в конвейер, будут записаны
+     */
+    public synchronized void cancelAll() {
+        for (Job job : jobs.values()) {
+            if (job.running) {
+                job.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * @return {@code List<RelemmatizationStatistics>} Состояние последней задачи каждого сайта
+     */
+    public synchronized List<RelemmatizationStatistics> getStatistics() {
+        return jobs.values().stream().map(Job::getStatistics).toList();
+    }
+
+    private synchronized boolean launch(SiteModel site, long afterPageId) {
+        Job running = jobs.get(site.getId());
+        if (running != null && running.running) {
+            return false;
+        }
+        Job job = new Job(site.getId(), site.getUrl(), afterPageId);
+        jobs.put(site.getId(), job);
+        saveProgress(job);
+        workers.execute(() -> run(job));
+        return true;
+    }
+
+    private synchronized void registerFailed(SiteModel site, long lastPageId, String error) {
+        Job job = new Job(site.getId(), site.getUrl(), lastPageId);
+        job.savedPageId = lastPageId;
+        job.error = error;
+        job.running = false;
+        jobs.put(site.getId(), job);
+    }
+
+    private void run(Job job) {
+        try {
+            job.total = count("SELECT COUNT(*) FROM page WHERE site = ?", job.siteId);
+            job.processed.set(count("SELECT COUNT(*) FROM page WHERE site = ? AND id <= ?", job.siteId, job.lastPageId));
+            job.resumedFrom = job.processed.get();
+            job.startNanos = System.nanoTime();
+            while (!job.cancelled && !Thread.currentThread().isInterrupted()) {
+                List<Long> ids = pageRepository.findKeysAfter(job.siteId, job.lastPageId,
+                        PageRequest.ofSize(settings.getRelemmatizeChunk())).stream().map(PageKey::getId).toList();
+                if (ids.isEmpty()) {
+                    break;
+                }
+                Map<Long, String> contents = pageContentStore.loadAll(ids);
+                long chunkStart = job.lastPageId;
+                long failedBefore = job.failedPages.get();
+                for (Long id : ids) {
+                    if (job.cancelled || Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    String html = contents.get(id);
+                    if (html != null) {
+                        indexingPipeline.submit(id, job.siteId, Jsoup.parse(html), job.failedPages::incrementAndGet);
+                    }
+                    job.lastPageId = id;
+                    job.processed.incrementAndGet();
+                }
+                // прогресс сохраняется только для записанных страниц
+                indexingPipeline.awaitFlushed(job.siteId);
+                long failed = job.failedPages.get() - failedBefore;
+                if (failed > 0) {
+                    job.lastPageId = chunkStart;
+                    job.error = failed + " pages after page " + chunkStart + " were not written";
+                    log.warn("Stopped lemma reindexing of {}: {}", job.url, job.error);
+                    saveFailure(job);
+                    break;
+                }
+                if (!job.cancelled) {
+                    saveProgress(job);
+                }
+            }
+            if (job.cancelled || (job.error == null && !Thread.currentThread().isInterrupted())) {
+                indexingStateRepository.deleteById(stateName(job.siteId));
+            }
+            searchResultCache.invalidate();
+            indexSegmentStore.rebuildAsync();
+            log.info("{} lemma reindexing of {}: {} of {} pages",
+                    job.cancelled ? "Cancelled" : job.error != null ? "Failed" : "Finished",
+                    job.url, job.processed.get(), job.total);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            job.error = e.toString();
+            log.error("Lemma reindexing of {} failed after page {}", job.url, job.lastPageId, e);
+            if (!job.cancelled) {
+                saveFailure(job);
+            }
+        } finally {
+            job.running = false;
+        }
+    }
+
+    private long count(String sql, Object... args) {
+        Long count = jdbcTemplate.queryForObject(sql, Long.class, args);
+        return count == null ? 0 : count;
+    }
+
+    private void saveProgress(Job job) {
+        indexingStateRepository.save(new IndexingState(stateName(job.siteId), String.valueOf(job.lastPageId)));
+        job.savedPageId = job.lastPageId;
+    }
+
+    /**
+     * Сохраняет ошибку вместе с последней записанной страницей, чтобы задача не продолжалась после перезапуска
+     */
+    private void saveFailure(Job job) {
+        String value = job.savedPageId + ERROR_SEPARATOR + job.error;
+        try {
+            indexingStateRepository.save(new IndexingState(stateName(job.siteId),
+                    value.substring(0, Math.min(value.length(), STATE_VALUE_LENGTH))));
+        } catch (RuntimeException e) {
+            log.error("Failed to save lemma reindexing error of {}", job.url, e);
+        }
+    }
+
+    private static String stateName(long siteId) {
+        return STATE_PREFIX + siteId;
+    }
+
+    private static final class Job {
+        private final long siteId;
+        private final String url;
+        private final AtomicLong processed = new AtomicLong();
+        /**
+         * Страницы этой задачи, которые не удалось лемматизировать или записать. Ошибки обхода того же сайта
+         * сюда не попадают
+         */
+        private final AtomicLong failedPages = new AtomicLong();
+        private volatile long lastPageId;
+        /**
+         * Последняя страница, сохраненная в {@link IndexingState}, с нее продолжается задача
+         */
+        private volatile long savedPageId;
+        private volatile long total;
+        /**
+         * Страницы, обработанные до перезапуска, не учитываются в скорости
+         */
+        private volatile long resumedFrom;
+        private volatile long startNanos;
+        private volatile boolean running = true;
+        private volatile boolean cancelled;
+        private volatile String error;
+
+        Job(long siteId, String url, long lastPageId) {
+            this.siteId = siteId;
+            this.url = url;
+            this.lastPageId = lastPageId;
+        }
+
+        RelemmatizationStatistics getStatistics() {
+            RelemmatizationStatistics statistics = new RelemmatizationStatistics();
+            long done = processed.get();
+            double seconds = startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1e9;
+            double rate = seconds == 0 ? 0 : (done - resumedFrom) / seconds;
+            statistics.setUrl(url);
+            statistics.setRunning(running);
+            statistics.setCancelled(cancelled);
+            statistics.setError(error);
+            statistics.setPagesTotal(total);
+            statistics.setPagesProcessed(done);
+            statistics.setLastPageId(lastPageId);
+            statistics.setPagesPerSecond(rate);
+            statistics.setEtaSeconds(rate == 0 ? -1 : (long) (Math.max(0, total - done) / rate));
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package searchengine.services;
+
+import searchengine.config.ScoringMode;
+
+/**
+ * Расчет релевантности найденных страниц
+ */
+public interface RelevanceScorer {
+
+    /**
+     * @return {@link ScoringMode} Способ расчета, который реализует данный класс
+     */
+    ScoringMode mode();
+
+    /**
+     * Рассчитывает абсолютную релевантность страниц
+     *
+     * @param input Ранги лемм запроса и статистика индекса
+     * @return {@code double[]} Релевантность каждой страницы из {@link ScoringInput#pages()}
+     */
+    double[] score(ScoringInput input);
+}
@@ -0,0 +1,20 @@
+package searchengine.services;
+
+/**
+ * Данные для расчета релевантности найденных страниц по леммам запроса.
+ * Все массивы выровнены по {@code pages}.
+ *
+ * @param pages               Идентификаторы найденных страниц
+ * @param termFrequencies     Ранги каждой леммы запроса на каждой странице: {@code [лемма][страница]}
+ * @param documentFrequencies Количество страниц, на которых встречается каждая лемма запроса
+ * @param pageLengths         Длины страниц (сумма рангов всех лемм страницы)
+ * @param pageCount           Количество страниц в индексе
+ * @param averagePageLength   Средняя длина страницы в индексе
+ */
+public record ScoringInput(long[] pages,
+                           int[][] termFrequencies,
+                           int[] documentFrequencies,
+                           double[] pageLengths,
+                           int pageCount,
+                           double averagePageLength) {
+}
@@ -0,0 +1,37 @@
+package searchengine.services;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Курсор постраничной выдачи: релевантность и идентификатор последней отданной страницы.
+ * Выдача упорядочена по убыванию релевантности, при равенстве - по возрастанию идентификатора,
+ * поэтому следующая страница выдачи начинается сразу после этой пары.
+ * Клиенту курсор передается непрозрачной строкой Base64 URL.
+ *
+ * @param score  Релевантность последней отданной страницы до нормализации
+ * @param pageId Идентификатор последней отданной страницы
+ */
+public record SearchCursor(double score, long pageId) {
+
+    private static final int LENGTH = Double.BYTES + Long.BYTES;
+
+    public String encode() {
+        byte[] bytes = ByteBuffer.allocate(LENGTH).putDouble(score).putLong(pageId).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @param cursor Строка, полученная из {@link #encode()}
+     * @return {@link SearchCursor}
+     * @throws IllegalArgumentException если строка не является курсором
+     */
+    public static SearchCursor decode(String cursor) {
+        byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new SearchCursor(buffer.getDouble(), buffer.getLong());
+    }
+}
@@ -0,0 +1,86 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Метрики поиска: общее время запроса {@code searchengine.search} и время каждой фазы
+ * {@code searchengine.search.phase} с тегом {@code phase}:
+ * <ul>
+ *     <li>{@code lemmas} - разбор запроса и отбор лемм по частоте</li>
+ *     <li>{@code intersection} - пересечение списков страниц и проверка фраз</li>
+ *     <li>{@code ranking} - расчет релевантности и отбор лучших страниц</li>
+ *     <li>{@code snippets} - чтение страниц и построение сниппетов</li>
+ * </ul>
+ * Обращения к кэшу результатов считаются в {@code searchengine.search.cache} с тегом {@code result}.
+ */
+@Component
+public class SearchMetrics {
+
+    private final Timer total;
+    private final Timer lemmas;
+    private final Timer intersection;
+    private final Timer ranking;
+    private final Timer snippets;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+
+    public SearchMetrics(MeterRegistry registry) {
+        total = Timer.builder("searchengine.search")
+                .description("Время обработки поискового запроса")
+                .register(registry);
+        lemmas = phase(registry, "lemmas");
+        intersection = phase(registry, "intersection");
+        ranking = phase(registry, "ranking");
+        snippets = phase(registry, "snippets");
+        cacheHits = Counter.builder("searchengine.search.cache").tag("result", "hit").register(registry);
+        cacheMisses = Counter.builder("searchengine.search.cache").tag("result", "miss").register(registry);
+    }
+
+    public <T> T total(Supplier<T> search) {
+        return total.record(search);
+    }
+
+    /**
+     * Для потоковой выдачи, которая пишется уже после возврата из метода поиска
+     */
+    public void total(long elapsedNanos) {
+        total.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void lemmas(long elapsedNanos) {
+        lemmas.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> T intersection(Supplier<T> phase) {
+        return intersection.record(phase);
+    }
+
+    public <T> T ranking(Supplier<T> phase) {
+        return ranking.record(phase);
+    }
+
+    public <T> T snippets(Supplier<T> phase) {
+        return snippets.record(phase);
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    private static Timer phase(MeterRegistry registry, String phase) {
+        return Timer.builder("searchengine.search.phase")
+                .description("Время фазы поискового запроса")
+                .tag("phase", phase)
+                .register(registry);
+    }
+}
@@ -0,0 +1,53 @@
+package searchengine.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Разобранный поисковый запрос: леммы всех слов и фразы, взятые в кавычки.
+ * <p>
+ * Слова фразы нумеруются так же, как позиции в {@link PageTextLayout#positions()}: служебные
+ * слова и слова вне словарей пропускаются, поэтому фраза "поиск по сайту" совпадает с текстом
+ * "поиск по сайту" и "поиск на сайте".
+ *
+ * @param lemmas  Лемма -> количество повторений в запросе
+ * @param phrases Фразы из двух и более лемм
+ */
+public record SearchQuery(HashMap<String, Long> lemmas, List<List<PhraseTerm>> phrases) {
+
+    /**
+     * Лемма фразы и ее смещение от начала фразы
+     */
+    public record PhraseTerm(String lemma, int offset) {
+    }
+
+    /**
+     * @param query      Исходный запрос, фразы выделяются двойными кавычками, непарная кавычка игнорируется
+     * @param lemmaCache Кэш лемматизации
+     * @return {@link SearchQuery}
+     */
+    public static SearchQuery parse(String query, LemmaCache lemmaCache) {
+        HashMap<String, Long> lemmas = new HashMap<>();
+        List<List<PhraseTerm>> phrases = new ArrayList<>();
+        TextTokenizer tokenizer = new TextTokenizer();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            boolean quoted = i % 2 == 1 && i < parts.length - 1;
+            List<PhraseTerm> phrase = new ArrayList<>();
+            tokenizer.tokenize(parts[i], word -> {
+                LemmaCache.WordForm form = lemmaCache.lookup(word);
+                if (form.isIndexable()) {
+                    lemmas.merge(form.lemma(), 1L, Long::sum);
+                    if (quoted) {
+                        phrase.add(new PhraseTerm(form.lemma(), phrase.size()));
+                    }
+                }
+            });
+            if (phrase.size() > 1) {
+                phrases.add(phrase);
+            }
+        }
+        return new SearchQuery(lemmas, phrases);
+    }
+}
@@ -0,0 +1,148 @@
+package searchengine.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchSettings;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш результатов поиска: для нормализованного запроса хранится ранжированный список
+ * идентификаторов страниц с релевантностью, а не готовый ответ, поэтому из одной записи
+ * отдается любая страница выдачи.
+ * <p>
+ * Каждая запись помечена поколением индекса. Поколение увеличивается при переиндексации
+ * страницы и по завершении обхода сайта ({@link #invalidate()}), после чего старые записи
+ * не используются и вытесняются по размеру или времени жизни.
+ */
+@Component
+@RequiredArgsConstructor
+public class SearchResultCache {
+
+    private final SearchSettings settings;
+
+    private final AtomicLong generation = new AtomicLong();
+    private Cache<Key, Entry> cache;
+
+    @PostConstruct
+    public void init() {
+        SearchSettings.ResultCache cacheSettings = settings.getResultCache();
+        cache = Caffeine.newBuilder()
+                .maximumSize(cacheSettings.getMaximumSize())
+                .expireAfterWrite(Duration.ofSeconds(cacheSettings.getTtlSeconds()))
+                .build();
+    }
+
+    /**
+     * @return {@code long} Текущее поколение индекса, его нужно получить до расчета результата
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @return {@code int} Сколько лучших страниц нужно рассчитать для сохранения в кэш
+     */
+    public int depth() {
+        return settings.getResultCache().isEnabled() ? settings.getResultCache().getDepth() : 0;
+    }
+
+    /**
+     * @param key       Запрос
+     * @param requested Сколько лучших страниц нужно для ответа
+     * @return {@link Ranking} Результат текущего поколения, содержащий нужное количество страниц, или {@code null}
+     */
+    public Ranking get(Key key, long requested) {
+        if (!settings.getResultCache().isEnabled()) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null || entry.generation() != generation.get()) {
+            return null;
+        }
+        Ranking ranking = entry.ranking();
+        return ranking.pageIds().length >= Math.min(requested, ranking.totalHits()) ? ranking : null;
+    }
+
+    /**
+     * @param key        Запрос
+     * @param generation Поколение индекса, полученное до расчета результата
+     * @param ranking    Результат
+     */
+    public void put(Key key, long generation, Ranking ranking) {
+        if (settings.getResultCache().isEnabled()) {
+            cache.put(key, new Entry(generation, ranking));
+        }
+    }
+
+    /**
+     * Делает недействительными все сохраненные результаты
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Нормализованный запрос
+     *
+     * @param lemmas  Леммы запроса по алфавиту
+     * @param phrases Фразы запроса
+     * @param site    Сайт, пустая строка для поиска по всем сайтам
+     */
+    public record Key(List<String> lemmas, List<List<SearchQuery.PhraseTerm>> phrases, String site) {
+    }
+
+    /**
+     * Ранжированные страницы
+     *
+     * @param pageIds   Лучшие страницы по убыванию релевантности
+     * @param scores    Релевантность страниц
+     * @param totalHits Общее количество найденных страниц
+     * @param maxScore  Максимальная релевантность
+     */
+    public record Ranking(long[] pageIds, double[] scores, long totalHits, double maxScore) {
+        public static final Ranking EMPTY = new Ranking(new long[0], new double[0], 0, 0);
+
+        /**
+         * @return {@code boolean} Содержит ли результат все найденные страницы
+         */
+        public boolean isComplete() {
+            return pageIds.length >= totalHits;
+        }
+
+        /**
+         * @param cursor Последняя отданная страница
+         * @return {@code int} Позиция первой страницы после курсора
+         */
+        public int positionAfter(SearchCursor cursor) {
+            int low = 0;
+            int high = pageIds.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                boolean before = scores[middle] > cursor.score()
+                        || (scores[middle] == cursor.score() && pageIds[middle] <= cursor.pageId());
+                if (before) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return {@link SearchCursor} Курсор, указывающий на страницу в позиции {@code position}
+         */
+        public SearchCursor cursorAt(int position) {
+            return new SearchCursor(scores[position], pageIds[position]);
+        }
+    }
+
+    private record Entry(long generation, Ranking ranking) {
+    }
+}
@@ -0,0 +1,163 @@
+package searchengine.services;
+
+import searchengine.dto.statistics.CrawlStatistics;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Очередь обхода одного сайта. Адреса загружаются в порядке обнаружения (обход в ширину),
+ * каждый адрес после нормализации ({@link UrlNormalizer}) ставится в очередь не более одного раза.
+ * <p>
+ * Не потокобезопасна: все методы вызываются под блокировкой {@link CrawlScheduler}.
+ */
+public class SiteFrontier {
+
+    private final String siteUrl;
+    private final PagesFinder pagesFinder;
+    /**
+     * Максимальная глубина обхода, {@code 0} - без ограничения
+     */
+    private final int maxDepth;
+    /**
+     * Максимальное количество страниц, {@code 0} - без ограничения
+     */
+    private final int maxPages;
+
+    private final ArrayDeque<CrawlTask> queue = new ArrayDeque<>();
+    /**
+     * Адреса, которые уже были поставлены в очередь в этом обходе
+     */
+    private final UrlSeenSet scheduled;
+    private int inProgress;
+    private long crawled;
+    private boolean stopped;
+    /**
+     * Причина, по которой обход сайта прерван с ошибкой, или {@code null}
+     */
+    private String error;
+    private boolean finished;
+    private final long startNanos = System.nanoTime();
+    private long finishNanos;
+
+    public SiteFrontier(String siteUrl, PagesFinder pagesFinder, int maxDepth, int maxPages, UrlSeenSet scheduled) {
+        this.siteUrl = siteUrl;
+        this.scheduled = scheduled;
+        this.pagesFinder = pagesFinder;
+        this.maxDepth = maxDepth;
+        this.maxPages = maxPages;
+    }
+
+    public String getSiteUrl() {
+        return siteUrl;
+    }
+
+    public PagesFinder getPagesFinder() {
+        return pagesFinder;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Ставит адрес в очередь, если он не выходит за ограничения глубины и количества страниц
+     * и не был поставлен ранее
+     *
+     * @param url   Нормализованный адрес страницы
+     * @param depth Расстояние в ссылках от главной страницы
+     */
+    void offer(String url, int depth) {
+        if (url == null || stopped || (maxDepth > 0 && depth > maxDepth) || (maxPages > 0 && scheduled.size() >= maxPages)) {
+            return;
+        }
+        if (scheduled.add(url)) {
+            queue.add(new CrawlTask(this, url, depth));
+        } else if (scheduled.isFull()) {
+            // адрес мог быть новым, дальше обход пропускал бы страницы незаметно
+            error = "seen url set memory limit reached after " + scheduled.size() + " urls";
+            stop();
+        }
+    }
+
+    /**
+     * @return {@link CrawlTask} Следующий адрес для загрузки или {@code null}, если очередь пуста
+     */
+    CrawlTask poll() {
+        CrawlTask task = queue.poll();
+        if (task != null) {
+            inProgress++;
+        }
+        return task;
+    }
+
+    /**
+     * Отмечает загрузку страницы завершенной и ставит в очередь найденные на ней ссылки
+     *
+     * @param task  Загруженный адрес
+     * @param links Ссылки со страницы
+     */
+    void complete(CrawlTask task, List<String> links) {
+        inProgress--;
+        crawled++;
+        for (String link : links) {
+            offer(link, task.depth() + 1);
+        }
+    }
+
+    /**
+     * Очищает очередь. Уже загружаемые страницы будут обработаны до конца.
+     */
+    void stop() {
+        stopped = true;
+        queue.clear();
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    int inProgress() {
+        return inProgress;
+    }
+
+    /**
+     * @return {@code true} если очередь пуста и ни одна страница не загружается
+     */
+    boolean isDone() {
+        return queue.isEmpty() && inProgress == 0;
+    }
+
+    void markFinished() {
+        finished = true;
+        finishNanos = System.nanoTime();
+    }
+
+    CrawlStatistics getStatistics() {
+        CrawlStatistics statistics = new CrawlStatistics();
+        double seconds = ((finished ? finishNanos : System.nanoTime()) - startNanos) / 1e9;
+        statistics.setUrl(siteUrl);
+        statistics.setRunning(!finished);
+        statistics.setQueueSize(queue.size());
+        statistics.setInProgress(inProgress);
+        statistics.setPagesScheduled(scheduled.size());
+        statistics.setPagesCrawled(crawled);
+        statistics.setPagesPerSecond(seconds == 0 ? 0 : crawled / seconds);
+        statistics.setSeenSetBytes(scheduled.memoryBytes());
+        return statistics;
+    }
+
+    /**
+     * Адрес в очереди обхода
+     *
+     * @param frontier Очередь сайта
+     * @param url      Абсолютный адрес страницы, {@code null} - обход сайта завершен
+     * @param depth    Расстояние в ссылках от главной страницы
+     */
+    record CrawlTask(SiteFrontier frontier, String url, int depth) {
+    }
+}
@@ -0,0 +1,189 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.StatisticsSettings;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счетчики статистики сайтов для {@code /api/statistics}.
+ * <p>
+ * Количество страниц и объем загруженного HTML ведутся здесь и увеличиваются при сохранении страниц,
+ * количество лемм и записей индекса ведет {@link InvertedIndex}. Статистика собирается за O(сайтов)
+ * без чтения страниц и индексов из БД.
+ * <p>
+ * При старте и затем раз в {@link StatisticsSettings#getReconcileIntervalMs()} счетчики сверяются с БД
+ * агрегирующими запросами: расхождения пишутся в журнал, суммируются в метрике
+ * {@code searchengine.statistics.drift} и исправляются. Счетчики {@link InvertedIndex} пересчитываются
+ * только после его загрузки ({@link IndexLoadedEvent}), с этого же момента запускается периодическая сверка.
+ * Общее количество лемм перечитывается из таблицы {@code lemma} чаще,
+ * раз в {@link StatisticsSettings#getLemmaTotalRefreshMs()}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SiteStatisticsCounters {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final InvertedIndex invertedIndex;
+    private final StatisticsSettings settings;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Сайт -> количество страниц
+     */
+    private final ConcurrentHashMap<Long, AtomicLong> pages = new ConcurrentHashMap<>();
+    /**
+     * Сайт -> размер сохраненного HTML в байтах UTF-8
+     */
+    private final ConcurrentHashMap<Long, AtomicLong> contentBytes = new ConcurrentHashMap<>();
+    private final AtomicLong lemmaTotal = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+    private Counter pagesDrift;
+    private Counter contentBytesDrift;
+
+    @PostConstruct
+    public void start() {
+        pagesDrift = meterRegistry.counter("searchengine.statistics.drift", "counter", "pages");
+        contentBytesDrift = meterRegistry.counter("searchengine.statistics.drift", "counter", "content_bytes");
+        reconcileCounters();
+        refreshLemmaTotal();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "statistics-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Пересчитывает счетчики загруженного индекса и запускает периодическую сверку
+     */
+    @EventListener(IndexLoadedEvent.class)
+    public void indexLoaded() {
+        invertedIndex.recountStatistics();
+        long interval = settings.getReconcileIntervalMs();
+        scheduler.scheduleWithFixedDelay(this::reconcileSafely, interval, interval, TimeUnit.MILLISECONDS);
+        long refresh = settings.getLemmaTotalRefreshMs();
+        scheduler.scheduleWithFixedDelay(this::refreshLemmaTotalSafely, refresh, refresh, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Учитывает новую страницу сайта
+     *
+     * @param siteId Сайт
+     */
+    public void pageAdded(long siteId) {
+        counter(pages, siteId).incrementAndGet();
+    }
+
+    /**
+     * Учитывает изменение размера сохраненного HTML страницы
+     *
+     * @param siteId Сайт
+     * @param delta  Новый размер минус прежний, в байтах
+     */
+    public void contentChanged(long siteId, long delta) {
+        if (delta != 0) {
+            counter(contentBytes, siteId).addAndGet(delta);
+        }
+    }
+
+    public long pages(long siteId) {
+        AtomicLong counter = pages.get(siteId);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public long contentBytes(long siteId) {
+        AtomicLong counter = contentBytes.get(siteId);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @return {@code long} Количество лемм, которые встречаются хотя бы на одной странице
+     */
+    public long lemmaTotal() {
+        return lemmaTotal.get();
+    }
+
+    /**
+     * Сверяет счетчики страниц и объема HTML с БД и пересчитывает счетчики {@link InvertedIndex}.
+     * Изменения, сделанные во время сверки, могут быть потеряны до следующей сверки
+     */
+    public void reconcile() {
+        reconcileCounters();
+        invertedIndex.recountStatistics();
+    }
+
+    private void reconcileCounters() {
+        Map<Long, Long> dbPages = new HashMap<>();
+        jdbcTemplate.query("SELECT site, COUNT(*) FROM page GROUP BY site",
+                rs -> {
+                    dbPages.put(rs.getLong(1), rs.getLong(2));
+                });
+        Map<Long, Long> dbBytes = new HashMap<>();
+        jdbcTemplate.query("SELECT p.site, SUM(c.raw_length) FROM page_content c JOIN page p ON p.id = c.page_id "
+                        + "GROUP BY p.site",
+                rs -> {
+                    dbBytes.put(rs.getLong(1), rs.getLong(2));
+                });
+        apply("pages", pages, dbPages, pagesDrift);
+        apply("content bytes", contentBytes, dbBytes, contentBytesDrift);
+    }
+
+    private void apply(String name, ConcurrentHashMap<Long, AtomicLong> counters, Map<Long, Long> actual,
+                       Counter drift) {
+        counters.keySet().removeIf(siteId -> !actual.containsKey(siteId));
+        actual.forEach((siteId, value) -> {
+            long previous = counter(counters, siteId).getAndSet(value);
+            if (previous != value) {
+                drift.increment(Math.abs(value - previous));
+                log.warn("Statistics {} of site {} reconciled: {} -> {}", name, siteId, previous, value);
+            }
+        });
+    }
+
+    private void refreshLemmaTotal() {
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM lemma WHERE frequency > 0", Long.class);
+        lemmaTotal.set(total == null ? 0 : total);
+    }
+
+    private void reconcileSafely() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("Failed to reconcile site statistics", e);
+        }
+    }
+
+    private void refreshLemmaTotalSafely() {
+        try {
+            refreshLemmaTotal();
+        } catch (Exception e) {
+            log.error("Failed to refresh lemma total", e);
+        }
+    }
+
+    private static AtomicLong counter(ConcurrentHashMap<Long, AtomicLong> counters, long siteId) {
+        return counters.computeIfAbsent(siteId, id -> new AtomicLong());
+    }
+}
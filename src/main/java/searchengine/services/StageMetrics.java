@@ -0,0 +1,89 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import searchengine.dto.statistics.StageStatistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики производительности одного этапа конвейера индексации.
+ * <p>
+ * После {@link #bindTo(MeterRegistry)} те же измерения публикуются в Micrometer:
+ * таймер {@code searchengine.pipeline.stage} (время одного вызова {@link #record(long, long)} -
+ * страницы или пакета) и счетчики {@code searchengine.pipeline.items} и {@code searchengine.pipeline.failures}
+ * с тегом {@code stage}.
+ */
+public class StageMetrics implements MeterBinder {
+
+    private final String stage;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final AtomicLong firstNanos = new AtomicLong();
+    private volatile Timer timer;
+    private volatile Counter itemCounter;
+    private volatile Counter failures;
+
+    public StageMetrics(String stage) {
+        this.stage = stage;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        timer = Timer.builder("searchengine.pipeline.stage")
+                .description("Время обработки страницы или пакета на этапе конвейера")
+                .tag("stage", stage)
+                .register(registry);
+        itemCounter = Counter.builder("searchengine.pipeline.items")
+                .description("Страницы, прошедшие этап конвейера")
+                .tag("stage", stage)
+                .register(registry);
+        failures = Counter.builder("searchengine.pipeline.failures")
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    /**
+     * Учитывает обработанные элементы
+     *
+     * @param items        Количество элементов
+     * @param elapsedNanos Время обработки
+     */
+    public void record(long items, long elapsedNanos) {
+        firstNanos.compareAndSet(0, System.nanoTime() - elapsedNanos);
+        processed.add(items);
+        nanos.add(elapsedNanos);
+        Timer timer = this.timer;
+        if (timer != null) {
+            timer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+            itemCounter.increment(items);
+        }
+    }
+
+    public void recordFailure() {
+        failed.increment();
+        Counter failures = this.failures;
+        if (failures != null) {
+            failures.increment();
+        }
+    }
+
+    public StageStatistics getStatistics(int queueSize) {
+        StageStatistics statistics = new StageStatistics();
+        long count = processed.sum();
+        long first = firstNanos.get();
+        double seconds = first == 0 ? 0 : (System.nanoTime() - first) / 1e9;
+        statistics.setStage(stage);
+        statistics.setQueueSize(queueSize);
+        statistics.setProcessed(count);
+        statistics.setFailed(failed.sum());
+        statistics.setAverageMillis(count == 0 ? 0 : nanos.sum() / 1e6 / count);
+        statistics.setItemsPerSecond(seconds == 0 ? 0 : count / seconds);
+        return statistics;
+    }
+}
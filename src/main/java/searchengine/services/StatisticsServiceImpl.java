@@ -8,27 +8,35 @@ import searchengine.dto.statistics.DetailedStatisticsItem;
 import searchengine.dto.statistics.StatisticsData;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.dto.statistics.TotalStatistics;
-import searchengine.model.Lemma;
-import searchengine.model.PageModel;
 import searchengine.model.SiteModel;
-import searchengine.repository.LemmaRepository;
+import searchengine.model.SiteStatus;
 import searchengine.repository.SiteRepository;
 
 import java.util.*;
 
+/**
+ * Статистика индексации. Количество страниц, лемм и записей индекса сайтов берется из счетчиков
+ * {@link SiteStatisticsCounters} и {@link InvertedIndex}, из БД читается только статус каждого сайта
+ */
 @Service
 @RequiredArgsConstructor
 public class StatisticsServiceImpl implements StatisticsService {
 
     private final SiteRepository siteRepository;
-    private final LemmaRepository lemmaRepository;
+    private final SiteStatisticsCounters statisticsCounters;
+    private final InvertedIndex invertedIndex;
     private final SitesList sites;
+    private final LemmaIndexWriter lemmaIndexWriter;
+    private final CrawlScheduler crawlScheduler;
+    private final LemmaCache lemmaCache;
+    private final IndexingPipeline indexingPipeline;
+    private final RelemmatizationJobs relemmatizationJobs;
 
     @Override
     public StatisticsResponse getStatistics() {
         TotalStatistics total = new TotalStatistics();
         total.setSites(sites.getSites().size());
-        total.setIndexing(true);
+        total.setIndexing(crawlScheduler.isRunning());
 
         List<DetailedStatisticsItem> detailed = new ArrayList<>();
         List<Site> sitesList = sites.getSites();
@@ -37,16 +45,19 @@ public class StatisticsServiceImpl implements StatisticsService {
             item.setName(site.getName());
             item.setUrl(site.getUrl());
             SiteModel repSite = siteRepository.findByUrl(item.getUrl());
-            int pages = repSite.getPage().size();
-            HashSet<String> lemmas = new HashSet<>();
-            for (PageModel page : siteRepository.findByUrl(item.getUrl()).getPage()) {
-                lemmas.addAll(page.getIndexList().stream()
-                        .map(index -> index.getLemma().getLemma())
-                        .distinct().toList());
+            if (repSite == null) {
+                item.setStatus(SiteStatus.FAILED);
+                item.setError("Сайт еще не индексировался");
+                detailed.add(item);
+                continue;
             }
+            long siteId = repSite.getId();
+            long pages = statisticsCounters.pages(siteId);
 
             item.setPages(pages);
-            item.setLemmas(lemmas.stream().distinct().count());
+            item.setLemmas(invertedIndex.lemmaCount(siteId));
+            item.setIndexRows(invertedIndex.indexRows(siteId));
+            item.setBytesCrawled(statisticsCounters.contentBytes(siteId));
             item.setStatus(repSite.getStatus());
             item.setError(repSite.getLastError());
             item.setStatusTime(repSite.getStatusTime().getEpochSecond());
@@ -56,9 +67,14 @@ public class StatisticsServiceImpl implements StatisticsService {
 
         StatisticsResponse response = new StatisticsResponse();
         StatisticsData data = new StatisticsData();
-        total.setLemmas(lemmaRepository.count());
+        total.setLemmas(statisticsCounters.lemmaTotal());
         data.setTotal(total);
         data.setDetailed(detailed);
+        data.setWriter(lemmaIndexWriter.getStatistics());
+        data.setCrawl(crawlScheduler.getStatistics());
+        data.setLemmaCache(lemmaCache.getStatistics());
+        data.setPipeline(indexingPipeline.getStatistics());
+        data.setRelemmatization(relemmatizationJobs.getStatistics());
         response.setStatistics(data);
         response.setResult(true);
         return response;
@@ -0,0 +1,156 @@
+package searchengine.services;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+
+import java.util.function.Consumer;
+
+/**
+ * Разбиение текста на слова за один проход без регулярных выражений.
+ * <p>
+ * Для HTML обходятся только текстовые узлы документа, содержимое {@code script} и {@code style},
+ * атрибуты и имена тегов в слова не попадают. Словом считается непрерывная последовательность букв,
+ * буквы приводятся к нижнему регистру во внутреннем буфере, так что на каждое слово
+ * создается одна строка.
+ * <p>
+ * {@link #extract} дополнительно собирает текст страницы со схлопнутыми пробелами
+ * и сообщает смещения каждого слова в нем, чтобы сниппеты строились без повторного разбора HTML.
+ * <p>
+ * Не потокобезопасен, экземпляр используется одним потоком.
+ */
+public class TextTokenizer {
+
+    private char[] buffer = new char[64];
+    private int length;
+    private int tokenStart;
+
+    /**
+     * Получатель слова и его положения в извлеченном тексте
+     */
+    @FunctionalInterface
+    public interface TokenListener {
+        void accept(String word, int start, int end);
+    }
+
+    /**
+     * Передает слова всех текстовых узлов документа или элемента
+     *
+     * @param root     Корень обхода, например {@link org.jsoup.nodes.Document}
+     * @param consumer Получатель слов в нижнем регистре
+     */
+    public void tokenize(Node root, Consumer<String> consumer) {
+        NodeTraversor.traverse((node, depth) -> {
+            if (node instanceof TextNode textNode && !isSkipped(textNode.parent())) {
+                scan(textNode.getWholeText(), consumer);
+                flush(consumer);
+            }
+        }, root);
+    }
+
+    /**
+     * Передает слова обычного текста
+     *
+     * @param text     Текст без разметки
+     * @param consumer Получатель слов в нижнем регистре
+     */
+    public void tokenize(CharSequence text, Consumer<String> consumer) {
+        scan(text, consumer);
+        flush(consumer);
+    }
+
+    /**
+     * Собирает текст документа или элемента и передает его слова со смещениями.
+     * Последовательности пробельных символов заменяются одним пробелом,
+     * соседние текстовые узлы разделяются пробелом.
+     *
+     * @param root     Корень обхода, например {@link org.jsoup.nodes.Document}
+     * @param listener Получатель слов в нижнем регистре и их смещений в возвращаемом тексте
+     * @return {@link String} Текст без разметки
+     */
+    public String extract(Node root, TokenListener listener) {
+        StringBuilder text = new StringBuilder();
+        NodeTraversor.traverse((node, depth) -> {
+            if (node instanceof TextNode textNode && !isSkipped(textNode.parent())) {
+                appendSpace(text);
+                scan(textNode.getWholeText(), text, listener);
+                flush(text.length(), listener);
+            }
+        }, root);
+        int end = text.length();
+        if (end > 0 && text.charAt(end - 1) == ' ') {
+            text.setLength(end - 1);
+        }
+        return text.toString();
+    }
+
+    private void scan(CharSequence source, StringBuilder text, TokenListener listener) {
+        for (int i = 0, n = source.length(); i < n; i++) {
+            char c = source.charAt(i);
+            if (Character.isLetter(c)) {
+                if (length == 0) {
+                    tokenStart = text.length();
+                }
+                append(c);
+                text.append(c);
+            } else {
+                flush(text.length(), listener);
+                if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                    appendSpace(text);
+                } else {
+                    text.append(c);
+                }
+            }
+        }
+    }
+
+    private void flush(int end, TokenListener listener) {
+        if (length > 0) {
+            listener.accept(new String(buffer, 0, length), tokenStart, end);
+            length = 0;
+        }
+    }
+
+    private static void appendSpace(StringBuilder text) {
+        int end = text.length();
+        if (end > 0 && text.charAt(end - 1) != ' ') {
+            text.append(' ');
+        }
+    }
+
+    private void scan(CharSequence text, Consumer<String> consumer) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                append(c);
+            } else {
+                flush(consumer);
+            }
+        }
+    }
+
+    private void append(char c) {
+        if (length == buffer.length) {
+            char[] larger = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+        buffer[length++] = Character.toLowerCase(c);
+    }
+
+    private void flush(Consumer<String> consumer) {
+        if (length > 0) {
+            consumer.accept(new String(buffer, 0, length));
+            length = 0;
+        }
+    }
+
+    private static boolean isSkipped(Node parent) {
+        if (parent instanceof Element element) {
+            String tag = element.normalName();
+            return tag.equals("script") || tag.equals("style");
+        }
+        return false;
+    }
+}
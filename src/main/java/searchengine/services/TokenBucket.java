@@ -0,0 +1,35 @@
+package searchengine.services;
+
+/**
+ * Ограничитель частоты запросов по алгоритму token bucket.
+ * Не блокирует вызывающий поток: {@link #reserve()} резервирует ближайший
+ * свободный токен и возвращает, сколько нужно подождать до его появления.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private long nextFreeNanos;
+
+    /**
+     * @param permitsPerSecond Скорость пополнения токенов
+     * @param burst            Сколько токенов может накопиться при простое
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = intervalNanos * Math.max(0, burst - 1);
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * Резервирует токен
+     *
+     * @return {@code long} Через сколько наносекунд можно выполнить запрос
+     */
+    public synchronized long reserve() {
+        long now = System.nanoTime();
+        long start = Math.max(nextFreeNanos, now - burstNanos);
+        nextFreeNanos = start + intervalNanos;
+        return Math.max(0, start - now);
+    }
+}
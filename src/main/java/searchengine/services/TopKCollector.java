@@ -0,0 +1,146 @@
+package searchengine.services;
+
+/**
+ * Отбирает {@code k} лучших страниц по релевантности с помощью ограниченной
+ * двоичной кучи на примитивных массивах. Порядок результатов: по убыванию
+ * релевантности, при равенстве - по возрастанию идентификатора страницы.
+ * <p>
+ * Помимо лучших страниц подсчитывает общее количество совпадений и максимальную
+ * релевантность, поэтому не требует полной сортировки всех найденных страниц.
+ */
+public class TopKCollector {
+
+    private final int capacity;
+    private final long[] pageIds;
+    private final double[] scores;
+    private int size;
+    private long totalHits;
+    private double maxScore;
+
+    /**
+     * @param capacity Сколько лучших страниц нужно сохранить
+     */
+    public TopKCollector(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.pageIds = new long[this.capacity];
+        this.scores = new double[this.capacity];
+    }
+
+    /**
+     * Учитывает найденную страницу
+     *
+     * @param pageId Идентификатор страницы
+     * @param score  Релевантность страницы
+     */
+    public void collect(long pageId, double score) {
+        totalHits++;
+        if (totalHits == 1 || score > maxScore) {
+            maxScore = score;
+        }
+        if (capacity == 0) {
+            return;
+        }
+        if (size < capacity) {
+            pageIds[size] = pageId;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (isWorse(pageIds[0], scores[0], pageId, score)) {
+            pageIds[0] = pageId;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * @return {@code long} Общее количество учтенных страниц
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * @return {@code double} Максимальная релевантность среди всех учтенных страниц
+     */
+    public double getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Сортирует сохраненные страницы от лучшей к худшей. После вызова коллектор
+     * больше не принимает страницы.
+     *
+     * @return {@code int} Количество отсортированных страниц
+     */
+    public int sort() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        return size;
+    }
+
+    /**
+     * @param position Позиция после {@link #sort()}
+     * @return {@code long} Идентификатор страницы
+     */
+    public long pageIdAt(int position) {
+        return pageIds[position];
+    }
+
+    /**
+     * @param position Позиция после {@link #sort()}
+     * @return {@code double} Релевантность страницы
+     */
+    public double scoreAt(int position) {
+        return scores[position];
+    }
+
+    /**
+     * В вершине кучи хранится худшая из сохраненных страниц
+     */
+    private static boolean isWorse(long aId, double aScore, long bId, double bScore) {
+        if (aScore != bScore) {
+            return aScore < bScore;
+        }
+        return aId > bId;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!isWorse(pageIds[i], scores[i], pageIds[parent], scores[parent])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= end) {
+                break;
+            }
+            int worst = left;
+            int right = left + 1;
+            if (right < end && isWorse(pageIds[right], scores[right], pageIds[left], scores[left])) {
+                worst = right;
+            }
+            if (!isWorse(pageIds[worst], scores[worst], pageIds[i], scores[i])) {
+                break;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long id = pageIds[a];
+        pageIds[a] = pageIds[b];
+        pageIds[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
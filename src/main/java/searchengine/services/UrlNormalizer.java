@@ -0,0 +1,99 @@
+package searchengine.services;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Приведение адресов страниц к каноническому виду, чтобы разные записи одного
+ * адреса ({@code /a}, {@code /a/}, {@code /a#frag}, {@code HTTPS://Site/a}) обходились один раз
+ */
+public final class UrlNormalizer {
+
+    private UrlNormalizer() {
+    }
+
+    /**
+     * Нормализует абсолютный адрес: схема и хост приводятся к нижнему регистру,
+     * удаляются порт по умолчанию, фрагмент, пустой запрос, сегменты {@code .} и {@code ..}
+     * и завершающий {@code /} (кроме корня сайта)
+     *
+     * @param url Абсолютный адрес
+     * @return {@link String} Канонический адрес или {@code null}, если адрес не http(s) или не разбирается
+     */
+    public static String normalize(String url) {
+        if (url == null || url.isBlank()) {
+            return null;
+        }
+        URI uri;
+        try {
+            uri = new URI(url.trim()).normalize();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = uri.getScheme() == null ? null : uri.getScheme().toLowerCase();
+        String host = uri.getHost() == null ? null : uri.getHost().toLowerCase();
+        if (host == null || !("http".equals(scheme) || "https".equals(scheme))) {
+            return null;
+        }
+        int port = uri.getPort();
+        if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+            port = -1;
+        }
+
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        while (path.startsWith("/../")) {
+            path = path.substring(3);
+        }
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        StringBuilder result = new StringBuilder(url.length())
+                .append(scheme).append("://").append(host);
+        if (port != -1) {
+            result.append(':').append(port);
+        }
+        result.append(path);
+        String query = uri.getRawQuery();
+        if (query != null && !query.isEmpty()) {
+            result.append('?').append(query);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Ключ для проверки повторов: нормализованный адрес без схемы и без {@code www.},
+     * так что {@code http://www.site.ru/a} и {@code https://site.ru/a} считаются одной страницей
+     *
+     * @param normalizedUrl Адрес, полученный из {@link #normalize(String)}
+     * @return {@link String} Ключ адреса
+     */
+    public static String dedupKey(String normalizedUrl) {
+        String rest = normalizedUrl.substring(normalizedUrl.indexOf("://") + 3);
+        return rest.startsWith("www.") ? rest.substring(4) : rest;
+    }
+
+    /**
+     * @return {@code true} если адрес принадлежит сайту, {@code www.} в хосте не учитывается
+     */
+    public static boolean isSameSite(String siteUrl, String url) {
+        String siteHost = host(siteUrl);
+        return siteHost != null && siteHost.equals(host(url));
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            if (host == null) {
+                return null;
+            }
+            host = host.toLowerCase();
+            return host.startsWith("www.") ? host.substring(4) : host;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
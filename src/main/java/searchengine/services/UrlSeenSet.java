@@ -0,0 +1,193 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Множество уже встреченных адресов одного обхода сайта.
+ * <p>
+ * Вместо строк хранятся 64-битные отпечатки адресов в массиве {@code long[]} с открытой
+ * адресацией: 8-16 байт на адрес вместо сотен байт на строку в {@code HashSet}.
+ * Размер таблицы ограничен {@code maxBytes}. Если таблица упирается в ограничение,
+ * множество либо переходит на фильтр Блума того же размера (возможны редкие ложные
+ * повторы, из-за которых страница не будет обойдена), либо перестает принимать новые адреса:
+ * {@link #add} возвращает {@code false}, {@link #isFull()} - {@code true}, а отклонения считаются счетчиком
+ * {@code searchengine.crawl.seen.rejected}. Обход такого сайта {@link SiteFrontier} завершает с ошибкой.
+ * <p>
+ * Не потокобезопасно.
+ */
+@Slf4j
+public class UrlSeenSet {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final long maxBytes;
+    private final boolean bloomFallback;
+    private final Counter rejections;
+
+    private long[] table = new long[INITIAL_CAPACITY];
+    private int size;
+    /**
+     * Биты фильтра Блума, {@code null} пока используется таблица
+     */
+    private long[] bloom;
+    private int bloomHashes;
+    private boolean full;
+
+    /**
+     * @param maxBytes      Максимальный объем памяти под отпечатки
+     * @param bloomFallback Переходить ли на фильтр Блума при достижении ограничения
+     * @param rejections    Счетчик адресов, отклоненных из-за ограничения памяти
+     */
+    public UrlSeenSet(long maxBytes, boolean bloomFallback, Counter rejections) {
+        this.maxBytes = Math.max(maxBytes, INITIAL_CAPACITY * Long.BYTES);
+        this.bloomFallback = bloomFallback;
+        this.rejections = rejections;
+    }
+
+    /**
+     * Добавляет адрес
+     *
+     * @param normalizedUrl Адрес, полученный из {@link UrlNormalizer#normalize(String)}
+     * @return {@code true} если адрес встречен впервые и был добавлен
+     */
+    public boolean add(String normalizedUrl) {
+        long fingerprint = fingerprint(UrlNormalizer.dedupKey(normalizedUrl));
+        if (bloom != null) {
+            return addToBloom(fingerprint);
+        }
+        int mask = table.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == fingerprint) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if ((size + 1) * 4L > table.length * 3L && !grow()) {
+            if (bloom != null) {
+                return addToBloom(fingerprint);
+            }
+            rejections.increment();
+            return false;
+        }
+        if (table.length - 1 != mask) {
+            insert(table, fingerprint);
+        } else {
+            table[slot] = fingerprint;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * @return {@code int} Количество добавленных адресов
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return {@code true} если ограничение памяти достигнуто и новые адреса не принимаются
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * @return {@code long} Объем памяти под отпечатки в байтах
+     */
+    public long memoryBytes() {
+        return (long) (bloom != null ? bloom.length : table.length) * Long.BYTES;
+    }
+
+    /**
+     * Увеличивает таблицу вдвое, если это не превышает ограничение памяти,
+     * иначе переходит на фильтр Блума или помечает множество заполненным
+     *
+     * @return {@code true} если таблица увеличена
+     */
+    private boolean grow() {
+        long newLength = (long) table.length << 1;
+        if (newLength * Long.BYTES <= maxBytes) {
+            long[] newTable = new long[(int) newLength];
+            for (long fingerprint : table) {
+                if (fingerprint != 0) {
+                    insert(newTable, fingerprint);
+                }
+            }
+            table = newTable;
+            return true;
+        }
+        if (bloomFallback) {
+            log.info("Seen url set reached {} bytes after {} urls, switching to a Bloom filter", maxBytes, size);
+            switchToBloom();
+        } else if (!full) {
+            full = true;
+            log.warn("Seen url set reached {} bytes after {} urls, new urls are rejected", maxBytes, size);
+        }
+        return false;
+    }
+
+    private void switchToBloom() {
+        long bits = Long.highestOneBit(Math.min(maxBytes * 8, (long) Integer.MAX_VALUE * Long.SIZE));
+        bloom = new long[(int) (bits >>> 6)];
+        // число хэшей рассчитано на то, что адресов станет вчетверо больше, чем сейчас
+        bloomHashes = (int) Math.max(1, Math.min(16, Math.round(bits / (4.0 * size) * Math.log(2))));
+        for (long fingerprint : table) {
+            if (fingerprint != 0) {
+                addToBloom(fingerprint);
+            }
+        }
+        table = null;
+    }
+
+    private boolean addToBloom(long fingerprint) {
+        long bits = (long) bloom.length << 6;
+        long h1 = fingerprint;
+        long h2 = (fingerprint >>> 32) | 1;
+        boolean added = false;
+        for (int i = 0; i < bloomHashes; i++) {
+            long bit = (h1 + i * h2) & (bits - 1);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((bloom[word] & mask) == 0) {
+                bloom[word] |= mask;
+                added = true;
+            }
+        }
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    private static void insert(long[] target, long fingerprint) {
+        int mask = target.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (target[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        target[slot] = fingerprint;
+    }
+
+    /**
+     * 64-битный FNV-1a по байтам UTF-8 с перемешиванием из MurmurHash3.
+     * Значение {@code 0} зарезервировано под пустую ячейку таблицы.
+     */
+    static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3f99fd9b7a5L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}